@@ -1,10 +1,81 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.time.format.DateTimeFormatter;
 import java.time.LocalDateTime;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * MIT License
@@ -41,17 +112,35 @@ import java.util.Scanner;
  * Utils.promptNum();
  *
  * Here is the full list of functions:
+ *  - dedupeArray
+ *  - fileAppend
+ *  - fileDiff
+ *  - filePatch
+ *  - filePipeline
  *  - fileRead
+ *  - fileReadCacheCapacity
+ *  - fileReadCacheClear
+ *  - fileReadCacheHits
+ *  - fileReadCacheMisses
+ *  - fileReadCached
+ *  - fileReadColumn
+ *  - fileReadEncoded
+ *  - fileSearch
  *  - fileWrite
+ *  - fileWriteAtomic
+ *  - fileWriteCompressed
+ *  - fileWriteLocked
  *  - getDateTime
  *  - getVersion
  *  - initArray
+ *  - isLogEnabled
  *  - menu
  *  - numToStringNoTrailingZeros
  *  - pause
  *  - printArray
  *  - printCredits
  *  - printMsg
+ *  - printTable
  *  - printTitle
  *  - printVar
  *  - promptNum
@@ -62,6 +151,10 @@ import java.util.Scanner;
  *  - promptNumRange
  *  - promptStr
  *  - promptYN
+ *  - searchArray
+ *  - selectTop
+ *  - setLogLevel
+ *  - sortArray
  *
  * @author Benson Yee
  * @since 2021-01-23
@@ -72,968 +165,6887 @@ public class Utils {
 
     public static String VERSION = "1.2.3";
 
-    // TODO: static bool fileExists (String filename)
+    private static final String[] MONTHS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun",
+        "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final int GZIP_BLOCK_SIZE = 1024 * 1024;
+    private static final int RADIX_SORT_THRESHOLD = 1 << 16;
+    private static final long SEARCH_CHUNK_MIN = 4L * 1024 * 1024;
+    private static final long SEARCH_CHUNK_MAX = 1L << 30;
+    private static final int PIPELINE_BATCH_LINES = 1024;
+    private static final int PIPELINE_BATCHES = 32;
 
     /**
-     * Reads a file and stores its data to a String array.
+     * How much of a file fileWriteAtomic flushes to disk
+     * before renaming it into place.
      *
-     * @param  fileName the file name
-     * @param  arr      the String array to store the data into
-     * @return the number of lines read from the file
-     * @throws FileNotFoundException if the file does not exist,
-     *         is a directory rather than a regular file,
-     *         or for some other reason cannot be opened for
-     *         reading.
+     *  - NONE:     nothing, the operating system decides
+     *  - DATA:     the file's contents
+     *  - METADATA: the file's contents and metadata, and the
+     *              folder entry created by the rename
      */
-    public static int fileRead (String fileName, String[] arr) {
-
-        int index = 0;
+    public enum SyncPolicy {
+        NONE,
+        DATA,
+        METADATA
+    }
 
-        try {
-            File myFile = new File (fileName);
-            Scanner scanner = new Scanner (myFile);
-            initArray(arr);
+    /**
+     * The levels of message printed by the leveled printMsg and
+     * printVar, from least to most important. OFF is only used
+     * with setLogLevel, to print nothing.
+     */
+    public enum LogLevel {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        OFF
+    }
 
-            while (scanner.hasNextLine() && index != arr.length) {
-                arr[index++] = scanner.nextLine();
-            }
+    /*
+     * Utils has no other static state of its own. Each feature keeps
+     * its state in a holder class below, which the JVM only loads and
+     * initializes the first time that feature is used, so a program
+     * that only prints does not set up the file cache, file locks or
+     * logging. The features' code stays in Utils and is loaded with it.
+     */
 
-            scanner.close();
+    /**
+     * The levels set with setLogLevel. The byClass lock guards
+     * changes to byClass and hasClassLevels.
+     */
+    private static final class LogLevels {
 
-        } catch (FileNotFoundException e) {
+        static volatile LogLevel threshold = LogLevel.INFO;
+        static final ConcurrentHashMap<Class<?>, LogLevel> byClass = new ConcurrentHashMap<>();
+        static volatile boolean hasClassLevels = false;
+    }
 
-            System.out.printf("ERR: Unable to open file '%s'. Is the file in the root folder of this program?\n", fileName);
-            return -1;
-        }
-        return index;
+    /**
+     * The files kept by fileReadCached. Lookups take no lock; the
+     * map's lock guards every change to it, along with bytes and
+     * capacity. Each file's lastRead stamp stands in for an access
+     * order, so the file dropped first is the one read longest ago.
+     */
+    private static final class FileCache {
+
+        static final ConcurrentHashMap<Path, CachedFile> files = new ConcurrentHashMap<>();
+        static final ConcurrentHashMap<Path, FutureTask<CachedFile>> loads = new ConcurrentHashMap<>();
+        static final LongAdder hits = new LongAdder();
+        static final LongAdder misses = new LongAdder();
+        static long bytes = 0;
+        static long capacity = 64L * 1024 * 1024;
     }
 
     /**
-     * Writes a String array to a file. Each String element
-     * is written on its own line.
-     *
-     * @param  fileName    the file name
-     * @param  arr         the String array to write with
-     * @return true if write was successful, false otherwise
-     * @throws IOException if unable to write to file
+     * The locks fileWriteLocked uses to keep threads in this program
+     * from writing the same file at once. Each file uses the lock
+     * the hash of its file key picks, so names that reach the same
+     * file through a link share a lock, and the number of locks
+     * stays fixed however many files are written; two files that
+     * share a lock are just not written at the same time.
      */
-    public static boolean fileWrite (String fileName, String[] arr) {
+    private static final class FileLocks {
 
-        try {
-            File myFile;
-            myFile = new File (fileName);
+        static final ReentrantLock[] stripes = new ReentrantLock[64];
 
-            if (myFile.createNewFile()) {
-                System.out.printf("File '%s' created.\n", myFile.getName());
+        static {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new ReentrantLock();
             }
+        }
 
-            else {
-                System.out.printf("ERR: File '%s' already exists. ", myFile.getName());
+        static ReentrantLock forFile (Path path) throws IOException {
 
-                if (!promptYN("Would you like to overwrite (Y/N)?\n")) {
-                    return false;
-                }
+            Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+
+            if (key == null) {
+                key = path.toRealPath();
             }
 
-            FileWriter myWriter = new FileWriter(fileName);
+            int h = key.hashCode();
+            return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+        }
+    }
 
-            for (int i = 0; i < arr.length; i++) {
-                myWriter.write(arr[i] + "\n");
-            }
+    /**
+     * The reader that Prompt and the prompt functions share, so that
+     * input read ahead for one prompt is still there for the next.
+     */
+    private static final class PromptInput {
 
-            myWriter.close();
-            System.out.printf("File '%s' written to.\n\n", myFile.getName());
+        static final BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+    }
 
-        } catch (IOException e) {
+    /**
+     * The Context the static file functions use. It is never closed.
+     */
+    private static final class DefaultContext {
 
-            System.out.printf("ERR: Unable to create file '%s'.\n", fileName);
-            return false;
-        }
-        return true;
+        static final Context INSTANCE = new Context(false);
     }
 
+    /**
+     * The formatter getDateTime falls back to outside English locales.
+     */
+    private static final class DateTimeFormat {
 
+        static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("dd-MMM-yyy HH:mm:ss");
+    }
 
+    // TODO: static bool fileExists (String filename)
 
     /**
-     * Returns the date and time and returns it as a String. Format
-     * is dd-MM-yyy HH:mm:ss, with HH in 24-hour time.
+     * Removes repeated values from a sorted int array, in place.
+     * The unique values are moved to the front of the array, in
+     * order, and their count is returned. Values after that count
+     * are left as they were.
      *
      * Example:
-     * 25-Nov-2020 10:09:32
+     * [1, 1, 2, 3, 3] becomes [1, 2, 3, 3, 3], returns 3
      *
-     * @return the date / time as a String
+     * @param arr     the sorted array to remove repeats from
+     * @return the number of unique values
      */
-    public static String getDateTime() {
-
-        LocalDateTime myDateObj = LocalDateTime.now();
-        DateTimeFormatter myFormatObj = DateTimeFormatter.ofPattern("dd-MMM-yyy HH:mm:ss");
-        return myDateObj.format(myFormatObj);
-    }
+    public static int dedupeArray (int[] arr) {
 
+        if (arr.length == 0) {
+            return 0;
+        }
 
+        int unique = 1;
 
+        for (int i = 1; i < arr.length; i++) {
+            if (arr[i] != arr[unique - 1]) {
+                arr[unique++] = arr[i];
+            }
+        }
+        return unique;
+    }
 
     /**
-     * Returns the version of the Utils program. Format
-     * is Utils MAJOR.MINOR.PATCH, following Sematic
-     * Versioning (https://semver.org/).
+     * Removes repeated values from a sorted double array, in place.
+     * The unique values are moved to the front of the array, in
+     * order, and their count is returned. Values after that count
+     * are left as they were.
      *
      * Example:
-     * Utils 1.2.0
+     * [1.5, 1.5, 2.0] becomes [1.5, 2.0, 2.0], returns 2
      *
-     * @return the version of Utils as a String
+     * @param arr     the sorted array to remove repeats from
+     * @return the number of unique values
      */
-    public static String getVersion() {
-        return "Utils " + VERSION;
-    }
+    public static int dedupeArray (double[] arr) {
 
+        if (arr.length == 0) {
+            return 0;
+        }
 
+        int unique = 1;
 
+        for (int i = 1; i < arr.length; i++) {
+            if (Double.compare(arr[i], arr[unique - 1]) != 0) {
+                arr[unique++] = arr[i];
+            }
+        }
+        return unique;
+    }
 
     /**
-     * Initializes an int array to 0.
+     * Removes repeated values from a sorted float array, in place.
+     * The unique values are moved to the front of the array, in
+     * order, and their count is returned. Values after that count
+     * are left as they were.
      *
-     * @param arr     the array to initialize
+     * Example:
+     * [1.5, 1.5, 2.0] becomes [1.5, 2.0, 2.0], returns 2
+     *
+     * @param arr     the sorted array to remove repeats from
+     * @return the number of unique values
      */
-    public static void initArray (int[] arr) {
-        initArray(arr, 0);
+    public static int dedupeArray (float[] arr) {
+
+        if (arr.length == 0) {
+            return 0;
+        }
+
+        int unique = 1;
+
+        for (int i = 1; i < arr.length; i++) {
+            if (Float.compare(arr[i], arr[unique - 1]) != 0) {
+                arr[unique++] = arr[i];
+            }
+        }
+        return unique;
     }
 
     /**
-     * Initializes an int array to a given value.
+     * Removes repeated values from a sorted String array, in place.
+     * The unique values are moved to the front of the array, in
+     * order, and their count is returned. Values after that count
+     * are left as they were.
      *
-     * @param arr     the array to initialize
-     * @param value   the value to initialize to
+     * Example:
+     * ["a", "a", "b"] becomes ["a", "b", "b"], returns 2
+     *
+     * @param arr     the sorted array to remove repeats from
+     * @return the number of unique values
      */
-    public static void initArray (int[] arr, int value) {
+    public static int dedupeArray (String[] arr) {
 
-        for (int i = 0; i < arr.length; i++) {
-            arr[i] = value;
+        if (arr.length == 0) {
+            return 0;
+        }
+
+        int unique = 1;
+
+        for (int i = 1; i < arr.length; i++) {
+            if (!arr[i].equals(arr[unique - 1])) {
+                arr[unique++] = arr[i];
+            }
         }
+        return unique;
     }
 
 
 
 
     /**
-     * Initializes a double array to 0.
+     * Adds a String array to the end of a file, creating the file
+     * if needed. Each String element is written on its own line.
+     * The file is encoded with the platform's default charset.
      *
-     * @param arr     the array to initialize
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @return true if write was successful, false otherwise
      */
-    public static void initArray (double[] arr) {
-        initArray(arr, 0);
+    public static boolean fileAppend (String fileName, String[] arr) {
+        return fileAppend(fileName, arr, Charset.defaultCharset());
     }
 
     /**
-     * Initializes a double array to a given value.
+     * Adds a String array to the end of a file with a given
+     * charset, creating the file if needed. Each String element is
+     * written on its own line.
      *
-     * @param arr     the array to initialize
-     * @param value   the value to initialize to
-     */
-    public static void initArray (double[] arr, double value) {
-
-        for (int i = 0; i < arr.length; i++) {
-            arr[i] = value;
-        }
-    }
-
-
-
-
-    /**
-     * Initializes a float array to 0.
+     * Many threads and processes may append to the same file at
+     * once without taking a lock. The file is opened in append mode
+     * (O_APPEND), and each call's lines are written as one block in
+     * a single write, which the operating system places at the end
+     * of the file in one piece. Lines from different calls never
+     * interleave on local file systems; network file systems such
+     * as NFS do not promise this. If the write stops short, as when
+     * the disk fills, the rest is not written after it, since it
+     * could land apart from the first part; an error is printed and
+     * false is returned instead.
      *
-     * @param arr     the array to initialize
+     * Example:
+     * Utils.fileAppend("worker.log", new String[] { "job 42 done" }, StandardCharsets.UTF_8);
+     *
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @param  charset     the charset to encode the file with
+     * @return true if write was successful, false otherwise
      */
-    public static void initArray (float[] arr) {
-        initArray(arr, 0);
+    public static boolean fileAppend (String fileName, String[] arr, Charset charset) {
+        return fileAppend(DefaultContext.INSTANCE, fileName, arr, charset);
     }
 
     /**
-     * Initializes a float array to a given value.
+     * Appends lines to a file, tracking it in a Context while it
+     * is open.
      *
-     * @param arr     the array to initialize
-     * @param value   the value to initialize to
+     * @param  context     the Context to track the file in
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @param  charset     the charset to encode the file with
+     * @return true if write was successful, false otherwise
      */
-    public static void initArray (float[] arr, float value) {
+    private static boolean fileAppend (Context context, String fileName, String[] arr, Charset charset) {
 
-        for (int i = 0; i < arr.length; i++) {
-            arr[i] = value;
-        }
-    }
+        context.checkOpen();
 
+        ByteBuffer record = encodeLines(arr, charset);
 
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
 
+            context.track(channel, fileName);
 
-    /**
-     * Initializes a String array to an empty String.
-     *
-     * @param arr     the array to initialize
-     */
-    public static void initArray (String[] arr) {
-        initArray(arr, "");
+            try {
+                channel.write(record);
+
+            } finally {
+                context.untrack(channel);
+            }
+
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to write file '%s'.\n", fileName);
+            return false;
+        }
+
+        if (record.hasRemaining()) {
+
+            System.out.printf("ERR: Only %d of %d bytes were written to file '%s'.\n",
+                    record.position(), record.limit(), fileName);
+            return false;
+        }
+
+        System.out.printf("File '%s' written to.\n\n", new File(fileName).getName());
+        return true;
     }
 
     /**
-     * Initializes a String array to a given value.
+     * Encodes lines into one buffer, each followed by a line break.
      *
-     * @param arr     the array to initialize
-     * @param value   the value to initialize to
+     * @param  arr         the lines to encode
+     * @param  charset     the charset to encode the lines with
+     * @return the encoded lines
      */
-    public static void initArray (String[] arr, String value) {
+    private static ByteBuffer encodeLines (String[] arr, Charset charset) {
+
+        StringBuilder text = new StringBuilder();
 
         for (int i = 0; i < arr.length; i++) {
-            arr[i] = value;
+            text.append(arr[i]).append('\n');
         }
+        return ByteBuffer.wrap(text.toString().getBytes(charset));
     }
 
-
-
-
     /**
-     * Prints a menu with no title to the user. Prompts
-     * user to input number for their selection. Rejects
-     * non-numbers or numbers outside the selection
-     * range.
-     *
-     * Example:
-     * 1. Start Game
-     * 2. Settings
-     * 3. Quit
+     * Compares two files line by line and writes the differences
+     * to a third file in unified diff format, the same format as
+     * "diff -u". The diff file is replaced if it already exists,
+     * and is left empty if the files are the same.
      *
-     * Requires a String array containing the possible options.
+     * Each distinct line is given a number once, so lines are
+     * compared as ints rather than Strings. Lines shared at the
+     * start and end of both files are skipped, and the rest are
+     * compared with Myers' O(ND) algorithm in its linear-space
+     * form, so memory stays in proportion to the files' lengths
+     * no matter how many lines differ.
      *
      * Example:
-     * String options = {
-     *     "Start Game",
-     *     "Settings",
-     *     "Quit"
-     * }
+     * Utils.fileDiff("snapshot1.txt", "snapshot2.txt", "changes.diff");
      *
-     * @param options the String array containing the possible options
-     * @return the user's choice
+     * @param  oldFileName  the original file name
+     * @param  newFileName  the changed file name
+     * @param  diffFileName the file name to write the differences to
+     * @return true if the diff was written, false otherwise
      */
-    public static int menu (String[] options) {
-        return menu("", options);
+    public static boolean fileDiff (String oldFileName, String newFileName, String diffFileName) {
+        return fileDiff(DefaultContext.INSTANCE, oldFileName, newFileName, diffFileName);
     }
 
     /**
-     * Prints a menu with a title to the user. Prompts
-     * user to input number for their selection. Rejects
-     * non-numbers or numbers outside the selection
-     * range.
-     *
-     * Example:
-     * BATTLESHIP
-     * 1. Start Game
-     * 2. Settings
-     * 3. Quit
-     *
-     * Requires a String array containing the possible options.
-     *
-     * Example:
-     * String options = {
-     *     "Start Game",
-     *     "Settings",
-     *     "Quit"
-     * }
+     * Compares two files read through a Context and writes their
+     * differences, tracking the diff file in the Context while it
+     * is open.
      *
-     * @param title   the title of the menu
-     * @param options the String array containing the possible options
-     * @return the user's choice
+     * @param  context      the Context to read and write the files with
+     * @param  oldFileName  the original file name
+     * @param  newFileName  the changed file name
+     * @param  diffFileName the file name to write the differences to
+     * @return true if the diff was written, false otherwise
      */
-    public static int menu (String title, String[] options) {
+    private static boolean fileDiff (Context context, String oldFileName, String newFileName, String diffFileName) {
 
-        final int MIN_CHOICE = 1;
-        final int MAX_CHOICE = options.length;
+        context.checkOpen();
 
-        printMsg(title + "\n");
+        String[] oldLines;
+        String[] newLines;
+
+        try {
+            oldLines = readAllLines(context, oldFileName);
+            newLines = readAllLines(context, newFileName);
 
-        for (int i = 0; i < options.length; i++) {
-            System.out.printf("%d. %s\n", i + 1, options[i]);
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to read files '%s' and '%s'.\n", oldFileName, newFileName);
+            return false;
         }
 
-        int choice = (int) promptNumRange(MIN_CHOICE, MAX_CHOICE);
+        // Number each distinct line, so equal lines get equal numbers
+        Map<String, Integer> ids = new HashMap<>();
+        int[] a = new int[oldLines.length];
+        int[] b = new int[newLines.length];
 
-        System.out.println();
-        return choice;
-    }
+        for (int i = 0; i < a.length; i++) {
+            Integer id = ids.putIfAbsent(oldLines[i], ids.size());
+            a[i] = id == null ? ids.size() - 1 : id;
+        }
 
+        for (int i = 0; i < b.length; i++) {
+            Integer id = ids.putIfAbsent(newLines[i], ids.size());
+            b[i] = id == null ? ids.size() - 1 : id;
+        }
 
+        // Only the numbers are needed from here on
+        ids = null;
 
+        boolean[] removed = new boolean[a.length];
+        boolean[] added = new boolean[b.length];
+        int[] forward = new int[a.length + b.length + 4];
+        int[] backward = new int[a.length + b.length + 4];
 
-    /**
-     * Converts a double into a string. Removes trailing
-     * zeros, if any.
-     *
-     * @param num   the number to convert
-     * @return the number as a string, no trailing zeros
-     */
-    public static String numToStringNoTrailingZeros (double num) {
-        return String.valueOf(num).replaceFirst("\\.0*$|(\\.\\d*?)0+$", "$1");
-    }
+        diffRange(a, 0, a.length, b, 0, b.length, removed, added, forward, backward);
 
-    /**
-     * Converts a float into a string. Removes trailing
-     * zeros, if any.
-     *
-     * @param num   the number to convert
-     * @return the number as a string, no trailing zeros
-     */
-    public static String numToStringNoTrailingZeros (float num) {
-        return String.valueOf(num).replaceFirst("\\.0*$|(\\.\\d*?)0+$", "$1");
-    }
+        try (Writer myWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(diffFileName), Charset.defaultCharset()))) {
 
+            context.track(myWriter, diffFileName);
 
+            try {
+                // Like "diff -u", write nothing at all if the files are the same
+                if (hasChanges(removed) || hasChanges(added)) {
+                    myWriter.write("--- " + oldFileName + "\n");
+                    myWriter.write("+++ " + newFileName + "\n");
+                    writeHunks(myWriter, oldLines, newLines, removed, added);
+                }
 
+            } finally {
+                context.untrack(myWriter);
+            }
 
-    /**
-     * Pauses the console. Prompts the user to press Enter
-     * to continue. Waits for user to press Enter.
-     */
-    public static void pause() {
-        pause("Press ENTER to continue . . . \n");
-    }
-
-    /**
-     * Pauses the console. Prints message to console.
-     * Waits for user to press Enter.
-     *
-     * @param message the message to prompt the user
-     */
-    public static void pause (String message) {
-        promptStr(message);
-    }
-
+        } catch (IOException e) {
 
+            System.out.printf("ERR: Unable to create file '%s'.\n", diffFileName);
+            return false;
+        }
 
+        System.out.printf("File '%s' written to.\n\n", new File(diffFileName).getName());
+        return true;
+    }
 
     /**
-     * Prints an int array with no title.
+     * Returns whether any line was marked by diffRange.
      *
-     * Example:
-     * Index     Value
-     * 0         1
-     * 1         2
-     * 2         3
-     *
-     * @param arr     the array to print
+     * @param  marked      the lines marked as removed or added
+     * @return true if any line is marked, false otherwise
      */
-    public static void printArray (int[] arr) {
-        printArray("", arr);
+    private static boolean hasChanges (boolean[] marked) {
+
+        for (int i = 0; i < marked.length; i++) {
+            if (marked[i]) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Prints an int array with a title.
-     *
-     * Example:
-     * [arrayInt]
-     * Index     Value
-     * 0         1
-     * 1         2
-     * 2         3
+     * Finds the fewest lines to remove from a[aLo..aHi) and add
+     * from b[bLo..bHi) to turn one into the other, and marks them.
+     * Searches for the shortest edit path from both ends at once,
+     * splits the ranges where the two searches meet, and recurses
+     * on both halves.
      *
-     * @param title   the title to print
-     * @param arr     the array to print
+     * @param a        the original lines' numbers
+     * @param aLo      the first original line, inclusive
+     * @param aHi      the last original line, exclusive
+     * @param b        the changed lines' numbers
+     * @param bLo      the first changed line, inclusive
+     * @param bHi      the last changed line, exclusive
+     * @param removed  set to true for each original line removed
+     * @param added    set to true for each changed line added
+     * @param forward  scratch space for the forward search
+     * @param backward scratch space for the backward search
      */
-    public static void printArray (String title, int[] arr) {
+    private static void diffRange (int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                   boolean[] removed, boolean[] added, int[] forward, int[] backward) {
 
-        if (arr.length < 0) {
-            return;
+        // Skip lines shared at the start and end
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
         }
 
-        printMsg(title + "\n");
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
 
-        System.out.printf("%-10s%s\n", "Index", "Value");
+        if (aLo == aHi) {
+            Arrays.fill(added, bLo, bHi, true);
+            return;
+        }
 
-        for (int i = 0; i < arr.length; i++) {
-            System.out.printf("%-10d%d\n", i, arr[i]);
+        if (bLo == bHi) {
+            Arrays.fill(removed, aLo, aHi, true);
+            return;
         }
 
-        System.out.println();
-    }
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int maxD = (n + m + 1) / 2;
 
+        // Diagonal k is stored at k + maxD; -1 marks a diagonal not reached yet
+        Arrays.fill(forward, 0, 2 * maxD + 2, -1);
+        Arrays.fill(backward, 0, 2 * maxD + 2, -1);
+        forward[maxD + 1] = 0;
+        backward[maxD + 1] = 0;
 
+        // Diagonals trimmed off each end once their paths leave the grid
+        int kStart = 0;
+        int kEnd = 0;
+        int kbStart = 0;
+        int kbEnd = 0;
 
+        for (int d = 0; d < maxD; d++) {
 
-    /**
-     * Prints a double array with no title.
-     *
-     * Example:
-     * Index     Value
-     * 0         23231.1
-     * 1         17.56784
-     * 2         11.35782
-     *
-     * @param arr     the array to print
-     */
-    public static void printArray (double[] arr) {
-        printArray("", arr);
-    }
+            for (int k = -d + kStart; k <= d - kEnd; k += 2) {
 
-    /**
-     * Prints a double array with a title.
-     *
-     * Example:
-     * [arrayDouble]
-     * Index     Value
-     * 0         23231.1
-     * 1         17.56784
-     * 2         11.35782
-     *
-     * @param title   the title to print.
-     * @param arr     the array to print
-     */
-    public static void printArray (String title, double[] arr) {
+                int x = k == -d || (k != d && forward[maxD + k - 1] < forward[maxD + k + 1])
+                        ? forward[maxD + k + 1]
+                        : forward[maxD + k - 1] + 1;
+                int y = x - k;
 
-        if (arr.length < 0) {
-            return;
-        }
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                forward[maxD + k] = x;
 
-        printMsg(title + "\n");
+                if (x > n) {
+                    kEnd += 2;
+                }
 
-        System.out.printf("%-10s%s\n", "Index", "Value");
+                else if (y > m) {
+                    kStart += 2;
+                }
 
-        for (int i = 0; i < arr.length; i++) {
-            System.out.printf("%-10d%s\n", i, numToStringNoTrailingZeros(arr[i]));
-        }
+                else if (odd) {
 
-        System.out.println();
-    }
+                    // Split where this path meets the backward path on its diagonal
+                    int kb = maxD + delta - k;
 
+                    if (kb >= 0 && kb < 2 * maxD + 2 && backward[kb] != -1 && x >= n - backward[kb]) {
+                        diffRange(a, aLo, aLo + x, b, bLo, bLo + y, removed, added, forward, backward);
+                        diffRange(a, aLo + x, aHi, b, bLo + y, bHi, removed, added, forward, backward);
+                        return;
+                    }
+                }
+            }
 
+            for (int kb = -d + kbStart; kb <= d - kbEnd; kb += 2) {
 
+                int x = kb == -d || (kb != d && backward[maxD + kb - 1] < backward[maxD + kb + 1])
+                        ? backward[maxD + kb + 1]
+                        : backward[maxD + kb - 1] + 1;
+                int y = x - kb;
 
-    /**
-     * Prints a float array with no title.
-     *
-     * Example:
-     * Index     Value
-     * 0         1.152313
-     * 1         2.234034
-     * 2         3.504182
-     *
-     * @param arr     the array to print
-     */
-    public static void printArray (float[] arr) {
-        printArray("", arr);
-    }
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[maxD + kb] = x;
 
-    /**
-     * Prints a float array with a title.
-     *
-     * Example:
-     * [arrayFloat]
-     * Index     Value
-     * 0         1.152313
-     * 1         2.234034
-     * 2         3.504182
-     *
-     * @param title   the title to print
-     * @param arr     the array to print
-     */
-    public static void printArray (String title, float[] arr) {
+                if (x > n) {
+                    kbEnd += 2;
+                }
 
-        if (arr.length < 0) {
-            return;
-        }
+                else if (y > m) {
+                    kbStart += 2;
+                }
 
-        printMsg(title + "\n");
+                else if (!odd) {
 
-        System.out.printf("%-10s%s\n", "Index", "Value");
+                    int k = maxD + delta - kb;
 
-        for (int i = 0; i < arr.length; i++) {
-            System.out.printf("%-10d%s\n", i, numToStringNoTrailingZeros(arr[i]));
+                    if (k >= 0 && k < 2 * maxD + 2 && forward[k] != -1 && forward[k] >= n - x) {
+                        int splitX = forward[k];
+                        int splitY = splitX - (k - maxD);
+
+                        diffRange(a, aLo, aLo + splitX, b, bLo, bLo + splitY, removed, added, forward, backward);
+                        diffRange(a, aLo + splitX, aHi, b, bLo + splitY, bHi, removed, added, forward, backward);
+                        return;
+                    }
+                }
+            }
         }
 
-        System.out.println();
+        // No shortest path found; treat the whole range as changed
+        Arrays.fill(removed, aLo, aHi, true);
+        Arrays.fill(added, bLo, bHi, true);
     }
 
-
-
-
     /**
-     * Prints a String array with no title.
-     *
-     * Example:
-     * Index     Value
-     * 0         This is a string
-     * 1         This is a second string
-     * 2         This is a third string
+     * Writes the marked differences as unified diff hunks, with
+     * up to 3 unchanged lines of context around each change.
+     * Changes with 6 or fewer unchanged lines between them share
+     * a hunk.
      *
-     * @param arr     the array to print
+     * @param  myWriter    the writer to write the hunks to
+     * @param  oldLines    the original lines
+     * @param  newLines    the changed lines
+     * @param  removed     which original lines were removed
+     * @param  added       which changed lines were added
+     * @throws IOException if unable to write
      */
-    public static void printArray (String[] arr) {
-        printArray("", arr);
-    }
+    private static void writeHunks (Writer myWriter, String[] oldLines, String[] newLines,
+                                    boolean[] removed, boolean[] added) throws IOException {
 
-    /**
-     * Prints a String array with a title.
-     *
-     * Example:
-     * [arrayString]
-     * Index     Value
-     * 0         This is a string
-     * 1         This is a second string
-     * 2         This is a third string
-     *
-     * @param title   the title to print
-     * @param arr     the array to print
-     */
-    public static void printArray (String title, String[] arr) {
+        final int CONTEXT = 3;
 
-        if (arr.length < 0) {
-            return;
-        }
+        // Each change is 4 ints: old start, old end, new start, new end
+        int[] changes = new int[16];
+        int count = 0;
+        int i = 0;
+        int j = 0;
 
-        printMsg(title + "\n");
+        while (i < oldLines.length || j < newLines.length) {
 
-        System.out.printf("%-10s%s\n", "Index", "Value");
+            if (i < oldLines.length && j < newLines.length && !removed[i] && !added[j]) {
+                i++;
+                j++;
+                continue;
+            }
 
-        for (int i = 0; i < arr.length; i++) {
-            System.out.printf("%-10d%s\n", i, arr[i]);
-        }
+            if (count + 4 > changes.length) {
+                changes = Arrays.copyOf(changes, changes.length * 2);
+            }
 
-        System.out.println();
-    }
+            changes[count++] = i;
 
+            while (i < oldLines.length && removed[i]) {
+                i++;
+            }
 
+            changes[count++] = i;
+            changes[count++] = j;
 
+            while (j < newLines.length && added[j]) {
+                j++;
+            }
 
-    /**
-     * Prints credits. Includes author name and end time
-     * of program.
-     *
-     * Example:
-     * Programmed by Benson Yee
-     * End Time: 25-Nov-2020 22:37:18
-     *
-     * @param authorName the author's name
-     */
-    public static void printCredits (String authorName) {
+            changes[count++] = j;
 
-        System.out.printf("End Time: %s\n", getDateTime());
-        System.out.printf("Programmed by %s\n", authorName);
-        System.out.printf("Powered by " + getVersion() + "\n");
-    }
+            if (changes[count - 4] == i && changes[count - 2] == j) {
+                break;
+            }
+        }
 
+        for (int first = 0; first < count; ) {
 
+            // Take every change close enough to the one before it
+            int last = first;
 
+            while (last + 4 < count && changes[last + 4] - changes[last + 1] <= 2 * CONTEXT) {
+                last += 4;
+            }
 
-    /**
-     * Prints a message, then a line break. If message
-     * is empty, does not print line break.
-     *
-     * @param message the message to print
-     */
-    public static void printMsg (String message) {
+            int before = Math.min(CONTEXT, changes[first]);
+            int after = Math.min(CONTEXT, oldLines.length - changes[last + 1]);
+            int oldStart = changes[first] - before;
+            int newStart = changes[first + 2] - before;
+            int oldLength = changes[last + 1] + after - oldStart;
+            int newLength = changes[last + 3] + after - newStart;
 
-        // Prints the message if not blank
-        System.out.printf("%s", message.isEmpty() || message.equals("\n") ? "" : (message));
-    }
+            myWriter.write("@@ -" + hunkRange(oldStart, oldLength) + " +" + hunkRange(newStart, newLength) + " @@\n");
+
+            int pos = oldStart;
+
+            for (int c = first; c <= last; c += 4) {
+
+                for (; pos < changes[c]; pos++) {
+                    myWriter.write(" " + oldLines[pos] + "\n");
+                }
+
+                for (int k = changes[c]; k < changes[c + 1]; k++) {
+                    myWriter.write("-" + oldLines[k] + "\n");
+                }
+
+                for (int k = changes[c + 2]; k < changes[c + 3]; k++) {
+                    myWriter.write("+" + newLines[k] + "\n");
+                }
 
+                pos = changes[c + 1];
+            }
 
+            for (; pos < oldStart + oldLength; pos++) {
+                myWriter.write(" " + oldLines[pos] + "\n");
+            }
 
+            first = last + 4;
+        }
+    }
 
     /**
-     * Prints the program name, the author name, and the
-     * start time of the program.
-     *
-     * Example:
-     * Template v1.0.0
-     * Programmed by Benson Yee
-     * Start Time: 25-Nov-2020 22:36:53
+     * Formats one side of a hunk header. An empty range is
+     * numbered by the line before it, and a length of 1 is
+     * left out, as diff does.
      *
-     * @param programName the program's name
-     * @param authorName  the author's name
+     * @param  start       the range's first line, starting from 0
+     * @param  length      the number of lines in the range
+     * @return the range, such as "12,4"
      */
-    public static void printTitle (String programName, String authorName) {
+    private static String hunkRange (int start, int length) {
 
-        System.out.printf("\n%s\n", programName);
-        System.out.printf("Programmed by %s\n", authorName);
-        System.out.printf("Start Time: %s\n\n", getDateTime());
+        if (length == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
     }
 
-
-
-
     /**
-     * Prints an int variable's name and value. Useful
-     * for debugging or checking a variable's value in
-     * a loop.
+     * Applies a unified diff, such as one written by fileDiff, to
+     * a file. Every removed and unchanged line in the diff must
+     * match the file, and every hunk must be well formed and as
+     * long as its header says, or nothing is written. The patched
+     * file is written with fileWriteAtomic, so a crash never leaves
+     * it half patched.
      *
      * Example:
-     * i: 1
-     * i: 2
-     * i: 3
+     * Utils.filePatch("snapshot1.txt", "changes.diff");
      *
-     * @param varName the variable's name
-     * @param var     the variable
+     * @param  fileName     the file name to patch
+     * @param  diffFileName the diff file name
+     * @return true if the patch was applied, false otherwise
      */
-    public static void printVar (String varName, int var) {
-        System.out.printf("%s: %d\n", varName, var);
+    public static boolean filePatch (String fileName, String diffFileName) {
+        return filePatch(DefaultContext.INSTANCE, fileName, diffFileName);
     }
 
     /**
-     * Prints a double variable's name and value. Useful
-     * for debugging or checking a variable's value
-     * in a loop.
+     * Applies a unified diff to a file, reading both and writing
+     * the patched file through a Context.
      *
-     * Example:
-     * numD: 2.5
-     * numD: 2.37
+     * @param  context      the Context to read and write the files with
+     * @param  fileName     the file name to patch
+     * @param  diffFileName the diff file name
+     * @return true if the patch was applied, false otherwise
+     */
+    private static boolean filePatch (Context context, String fileName, String diffFileName) {
+
+        context.checkOpen();
+
+        String[] oldLines;
+        String[] diffLines;
+
+        try {
+            oldLines = readAllLines(context, fileName);
+            diffLines = readAllLines(context, diffFileName);
+
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to read files '%s' and '%s'.\n", fileName, diffFileName);
+            return false;
+        }
+
+        List<String> result = new ArrayList<>(oldLines.length);
+        int pos = 0;
+        int d = 0;
+
+        while (d < diffLines.length) {
+
+            String header = diffLines[d++];
+
+            if (!header.startsWith("@@ -")) {
+                continue;
+            }
+
+            // Parse "@@ -start,length +start,length @@"
+            int end = header.indexOf(" @@", 4);
+            String[] ranges = end < 0 ? new String[0] : header.substring(4, end).split(" \\+", -1);
+            int[] oldRange = ranges.length == 2 ? parseHunkRange(ranges[0]) : null;
+            int[] newRange = ranges.length == 2 ? parseHunkRange(ranges[1]) : null;
+
+            if (oldRange == null || newRange == null) {
+                System.out.printf("ERR: Diff '%s' has a malformed hunk header on line %d.\n", diffFileName, d);
+                return false;
+            }
+
+            int oldStart = oldRange[1] == 0 ? oldRange[0] : oldRange[0] - 1;
+            int oldLeft = oldRange[1];
+            int newLeft = newRange[1];
+
+            if (oldStart < pos || oldStart > oldLines.length) {
+                System.out.printf("ERR: Diff '%s' does not apply to file '%s' at line %d.\n", diffFileName, fileName, oldStart + 1);
+                return false;
+            }
+
+            while (pos < oldStart) {
+                result.add(oldLines[pos++]);
+            }
+
+            while ((oldLeft > 0 || newLeft > 0) && d < diffLines.length) {
+
+                String line = diffLines[d++];
+                char type = line.isEmpty() ? ' ' : line.charAt(0);
+                String text = line.isEmpty() ? "" : line.substring(1);
+
+                if (type == '\\') {
+                    continue;
+                }
+
+                if (type != ' ' && type != '-' && type != '+'
+                        || type != '+' && oldLeft == 0 || type != '-' && newLeft == 0) {
+                    System.out.printf("ERR: Diff '%s' has a malformed hunk on line %d.\n", diffFileName, d);
+                    return false;
+                }
+
+                if (type == '+') {
+                    result.add(text);
+                    newLeft--;
+                    continue;
+                }
+
+                if (pos == oldLines.length || !oldLines[pos].equals(text)) {
+                    System.out.printf("ERR: Diff '%s' does not apply to file '%s' at line %d.\n", diffFileName, fileName, pos + 1);
+                    return false;
+                }
+
+                if (type == ' ') {
+                    result.add(text);
+                    newLeft--;
+                }
+
+                pos++;
+                oldLeft--;
+            }
+
+            if (oldLeft > 0 || newLeft > 0) {
+                System.out.printf("ERR: Diff '%s' ends in the middle of a hunk.\n", diffFileName);
+                return false;
+            }
+        }
+
+        while (pos < oldLines.length) {
+            result.add(oldLines[pos++]);
+        }
+
+        return fileWriteAtomic(context, new String[] { fileName }, new String[][] { result.toArray(new String[0]) },
+                Charset.defaultCharset(), SyncPolicy.DATA);
+    }
+
+    /**
+     * Parses one side of a hunk header, such as "12,4" or "12".
+     *
+     * @param  range       the range to parse
+     * @return the start and the length, or null if the range is malformed
+     */
+    private static int[] parseHunkRange (String range) {
+
+        String[] parts = range.split(",", -1);
+        int start;
+        int length;
+
+        try {
+            start = Integer.parseInt(parts[0]);
+            length = parts.length == 1 ? 1 : Integer.parseInt(parts[1]);
+
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (parts.length > 2 || start < 0 || length < 0 || start == 0 && length > 0) {
+            return null;
+        }
+        return new int[] { start, length };
+    }
+
+    /**
+     * Streams a file line by line through a chain of transforms into
+     * another file. Each transform's result replaces the line, and a
+     * null result drops it. The files are encoded with the
+     * platform's default charset, the transforms run on the common
+     * ForkJoinPool, and the lines keep their order.
+     *
+     * @param  inFileName  the file name to read from
+     * @param  outFileName the file name to write to
+     * @param  stages      the transforms, applied in order
+     * @return the number of lines written, or -1 if unsuccessful
+     */
+    @SafeVarargs
+    public static long filePipeline (String inFileName, String outFileName, Function<String, String>... stages) {
+        return filePipeline(inFileName, outFileName, Charset.defaultCharset(), ForkJoinPool.commonPool(), true, stages);
+    }
+
+    /**
+     * Streams a file line by line through a chain of transforms into
+     * another file, with a given charset and executor. Each
+     * transform's result replaces the line, and a null result drops
+     * it.
+     *
+     * The file is read on the calling thread and published in
+     * batches of lines through a java.util.concurrent.Flow chain, one
+     * stage per transform and a sink that writes the file, all
+     * running on the executor. Every stage works on a different batch
+     * at once. Only a fixed number of batches may be in the chain:
+     * reading waits until the sink has written one, so memory use
+     * stays the same however large the file is.
+     *
+     * When ordered is true each stage handles one batch at a time and
+     * the lines are written in the order they were read. When it is
+     * false each stage hands every batch to the executor as it
+     * arrives, so a slow transform runs on many threads at once, and
+     * batches may be written out of order. Lines within a batch keep
+     * their order.
+     *
+     * If a transform throws or the executor rejects work, as it does
+     * once shut down, the pipeline stops, an error is printed and -1
+     * is returned. The output file may by then have been created.
+     *
+     * At INFO level, each stage's lines in and out and its throughput
+     * (lines per second of time spent in the transform) are printed
+     * once the file is written.
+     *
+     * Example:
+     * Utils.filePipeline("in.txt", "out.txt", StandardCharsets.UTF_8, pool, false,
+     *                    String::trim, line -> line.isEmpty() ? null : line.toUpperCase());
+     *
+     * @param  inFileName  the file name to read from
+     * @param  outFileName the file name to write to
+     * @param  charset     the charset of both files
+     * @param  executor    the executor to run the stages on
+     * @param  ordered     true to keep the lines in order
+     * @param  stages      the transforms, applied in order
+     * @return the number of lines written, or -1 if unsuccessful
+     */
+    @SafeVarargs
+    public static long filePipeline (String inFileName, String outFileName, Charset charset,
+                                     Executor executor, boolean ordered, Function<String, String>... stages) {
+        return filePipeline(DefaultContext.INSTANCE, inFileName, outFileName, charset, executor, ordered, stages);
+    }
+
+    /**
+     * Streams a file through a chain of transforms, reading it
+     * with a buffer and decoder lent by a Context and tracking both
+     * files in the Context while they are open.
+     *
+     * @param  context     the Context to read and write the files with
+     * @param  inFileName  the file name to read from
+     * @param  outFileName the file name to write to
+     * @param  charset     the charset of both files
+     * @param  executor    the executor to run the stages on
+     * @param  ordered     true to keep the lines in order
+     * @param  stages      the transforms, applied in order
+     * @return the number of lines written, or -1 if unsuccessful
+     */
+    @SafeVarargs
+    private static long filePipeline (Context context, String inFileName, String outFileName, Charset charset,
+                                      Executor executor, boolean ordered, Function<String, String>... stages) {
+
+        context.checkOpen();
+
+        File outFile = new File(outFileName);
+        PipelineStage[] chain = new PipelineStage[stages.length];
+        long lines;
+
+        try {
+            if (!promptOverwrite(outFile)) {
+                return -1;
+            }
+
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to create file '%s'.\n", outFileName);
+            return -1;
+        }
+
+        byte[] buf = context.acquireBuffer();
+
+        try (LineReader reader = context.openLines(inFileName, charset, buf);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFile), charset))) {
+
+            context.track(reader, inFileName);
+            context.track(writer, outFileName);
+
+            try {
+                Semaphore permits = new Semaphore(PIPELINE_BATCHES);
+                SubmissionPublisher<LineBatch> source = new SubmissionPublisher<>(executor, PIPELINE_BATCHES);
+                PipelineSink sink = new PipelineSink(writer, permits);
+                Flow.Publisher<LineBatch> upstream = source;
+
+                try {
+                    for (int i = 0; i < stages.length; i++) {
+                        chain[i] = new PipelineStage(stages[i], executor, ordered, sink);
+                        upstream.subscribe(chain[i]);
+                        upstream = chain[i];
+                    }
+                    upstream.subscribe(sink);
+
+                    LineBatch batch = new LineBatch();
+                    String line;
+
+                    while (!sink.result.isDone() && (line = reader.readLine()) != null) {
+
+                        batch.lines[batch.size++] = line;
+
+                        if (batch.size == PIPELINE_BATCH_LINES) {
+                            permits.acquire();
+                            source.submit(batch);
+                            batch = new LineBatch();
+                        }
+                    }
+
+                    if (batch.size > 0) {
+                        permits.acquire();
+                        source.submit(batch);
+                    }
+                    source.close();
+
+                } catch (IOException e) {
+                    failPipeline(source, sink, e);
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failPipeline(source, sink, e);
+
+                } catch (RuntimeException e) {
+
+                    // The executor rejected work, such as after a shutdown
+                    failPipeline(source, sink, e);
+                }
+
+                // The sink must be done with the writer before it is closed
+                lines = sink.result.join();
+
+            } finally {
+                context.untrack(reader);
+                context.untrack(writer);
+            }
+
+        } catch (IOException | CompletionException e) {
+
+            System.out.printf("ERR: Unable to stream file '%s' to '%s'.\n", inFileName, outFileName);
+            return -1;
+
+        } finally {
+            context.releaseBuffer(buf);
+        }
+
+        for (int i = 0; i < chain.length; i++) {
+
+            PipelineStage stage = chain[i];
+            int number = i + 1;
+
+            printMsg(LogLevel.INFO, () -> String.format("Stage %d: %d lines in, %d lines out, %d lines/s\n",
+                    number, stage.linesIn.sum(), stage.linesOut.sum(), stage.throughput()));
+        }
+
+        System.out.printf("File '%s' written to.\n\n", outFile.getName());
+        return lines;
+    }
+
+    /**
+     * Closes a filePipeline publisher with a failure and fails the
+     * sink straight away. If the executor rejects the task that
+     * passes the failure on, the publisher is still closed, but the
+     * failure may never reach the sink, so the sink is failed here
+     * and the rejection is dropped.
+     *
+     * @param  publisher   the source or stage to close
+     * @param  sink        the pipeline's sink
+     * @param  failure     why the pipeline failed
+     */
+    private static void failPipeline (SubmissionPublisher<LineBatch> publisher, PipelineSink sink, Throwable failure) {
+
+        sink.onError(failure);
+
+        try {
+            publisher.closeExceptionally(failure);
+
+        } catch (RuntimeException e) {
+            // Closed already; the sink has the failure
+        }
+    }
+
+    /**
+     * Reads a file and stores its data to a String array.
+     * The file is decoded with the platform's default charset.
+     *
+     * @param  fileName the file name
+     * @param  arr      the String array to store the data into
+     * @return the number of lines read from the file
+     * @throws FileNotFoundException if the file does not exist,
+     *         is a directory rather than a regular file,
+     *         or for some other reason cannot be opened for
+     *         reading.
+     */
+    public static int fileRead (String fileName, String[] arr) {
+        return fileRead(fileName, arr, Charset.defaultCharset());
+    }
+
+    /**
+     * Reads a file with a given charset and stores its data to a
+     * String array. Lines of US-ASCII, ISO-8859-1 and UTF-8 files
+     * are split on the raw bytes and each line is decoded straight
+     * into a String, without going through a Reader. Gzip files
+     * are detected and decompressed automatically.
+     *
+     * Example:
+     * Utils.fileRead("data.txt", arr, StandardCharsets.UTF_8);
+     *
+     * @param  fileName the file name
+     * @param  arr      the String array to store the data into
+     * @param  charset  the charset the file is encoded with
+     * @return the number of lines read from the file
+     * @throws FileNotFoundException if the file does not exist,
+     *         is a directory rather than a regular file,
+     *         or for some other reason cannot be opened for
+     *         reading.
+     */
+    public static int fileRead (String fileName, String[] arr, Charset charset) {
+        return fileRead(DefaultContext.INSTANCE, fileName, arr, charset);
+    }
+
+    /**
+     * Reads a file into a String array with a buffer and decoder
+     * lent by a Context, tracking the file while it is open.
+     *
+     * @param  context  the Context to read the file with
+     * @param  fileName the file name
+     * @param  arr      the String array to store the data into
+     * @param  charset  the charset the file is encoded with
+     * @return the number of lines read from the file
+     */
+    private static int fileRead (Context context, String fileName, String[] arr, Charset charset) {
+
+        context.checkOpen();
+
+        int index = 0;
+        byte[] buf = context.acquireBuffer();
+
+        try (LineReader reader = context.openLines(fileName, charset, buf)) {
+
+            context.track(reader, fileName);
+
+            try {
+                String line;
+                initArray(arr);
+
+                while (index != arr.length && (line = reader.readLine()) != null) {
+                    arr[index++] = line;
+                }
+
+            } finally {
+                context.untrack(reader);
+            }
+
+        } catch (FileNotFoundException e) {
+
+            System.out.printf("ERR: Unable to open file '%s'. Is the file in the root folder of this program?\n", fileName);
+            return -1;
+
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to read file '%s'.\n", fileName);
+            return -1;
+
+        } finally {
+            context.releaseBuffer(buf);
+        }
+        return index;
+    }
+
+    /**
+     * Sets how much memory, in bytes, the lines kept by
+     * fileReadCached may use. Least recently read files are
+     * dropped first when the limit is exceeded. Defaults to
+     * 64 MB.
+     *
+     * @param bytes   the cache size in bytes
+     */
+    public static void fileReadCacheCapacity (long bytes) {
+
+        synchronized (FileCache.files) {
+            FileCache.capacity = bytes;
+            evictFileCache();
+        }
+    }
+
+    /**
+     * Drops every file kept by fileReadCached.
+     */
+    public static void fileReadCacheClear() {
+
+        synchronized (FileCache.files) {
+            FileCache.files.clear();
+            FileCache.bytes = 0;
+        }
+    }
+
+    /**
+     * Returns the number of fileReadCached calls that were
+     * answered from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public static long fileReadCacheHits() {
+        return FileCache.hits.sum();
+    }
+
+    /**
+     * Returns the number of fileReadCached calls that had
+     * to read the file.
+     *
+     * @return the number of cache misses
+     */
+    public static long fileReadCacheMisses() {
+        return FileCache.misses.sum();
+    }
+
+    /**
+     * Reads a file and stores its data to a String array, like
+     * fileRead, but keeps the lines in memory for the next call.
+     * The kept lines are used as long as the file's modified time,
+     * size and file key (the inode on most systems) have not
+     * changed. If several threads ask for the same file at once,
+     * only one of them reads it and the others wait for its lines.
+     * Reads answered from the cache take no lock.
+     *
+     * The file is decoded with the platform's default charset.
+     *
+     * @param  fileName the file name
+     * @param  arr      the String array to store the data into
+     * @return the number of lines read from the file, or -1 if
+     *         the file could not be read
+     */
+    public static int fileReadCached (String fileName, String[] arr) {
+
+        CachedFile cached;
+
+        try {
+            Path path = Paths.get(fileName).toAbsolutePath().normalize();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            cached = FileCache.files.get(path);
+
+            if (cached != null && cached.matches(attributes)) {
+                FileCache.hits.increment();
+                cached.touch();
+            }
+
+            else {
+                FileCache.misses.increment();
+
+                FutureTask<CachedFile> load = new FutureTask<>(() -> new CachedFile(path, attributes));
+                FutureTask<CachedFile> running = FileCache.loads.putIfAbsent(path, load);
+
+                if (running == null) {
+                    running = load;
+
+                    try {
+                        load.run();
+                        cacheFile(path, load.get());
+
+                    } finally {
+                        FileCache.loads.remove(path, load);
+                    }
+                }
+
+                cached = running.get();
+            }
+
+        } catch (NoSuchFileException e) {
+
+            System.out.printf("ERR: Unable to open file '%s'. Is the file in the root folder of this program?\n", fileName);
+            return -1;
+
+        } catch (IOException | ExecutionException e) {
+
+            System.out.printf("ERR: Unable to read file '%s'.\n", fileName);
+            return -1;
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            System.out.printf("ERR: Interrupted while reading file '%s'.\n", fileName);
+            return -1;
+        }
+
+        int lines = Math.min(arr.length, cached.lines.length);
+
+        initArray(arr);
+        System.arraycopy(cached.lines, 0, arr, 0, lines);
+        return lines;
+    }
+
+    /**
+     * Adds a file's lines to the cache, replacing any older
+     * copy, and drops the least recently read files if the cache
+     * is over capacity.
+     *
+     * @param path    the file's path
+     * @param cached  the file's lines
+     */
+    private static void cacheFile (Path path, CachedFile cached) {
+
+        synchronized (FileCache.files) {
+
+            if (cached.bytes > FileCache.capacity) {
+                return;
+            }
+
+            CachedFile old = FileCache.files.put(path, cached);
+
+            if (old != null) {
+                FileCache.bytes -= old.bytes;
+            }
+
+            FileCache.bytes += cached.bytes;
+            evictFileCache();
+        }
+    }
+
+    /**
+     * Drops the least recently read files until the cache is
+     * within capacity. Must hold the FileCache.files lock. Files
+     * read while this runs may update their stamps, so the order
+     * is only roughly that of the last reads.
+     */
+    private static void evictFileCache() {
+
+        while (FileCache.bytes > FileCache.capacity) {
+
+            CachedFile oldest = null;
+
+            for (CachedFile cached : FileCache.files.values()) {
+
+                if (oldest == null || cached.lastRead - oldest.lastRead < 0) {
+                    oldest = cached;
+                }
+            }
+
+            if (oldest == null) {
+                return;
+            }
+
+            FileCache.files.remove(oldest.path);
+            FileCache.bytes -= oldest.bytes;
+        }
+    }
+
+    /**
+     * Reads one column of a delimited file (such as a CSV file)
+     * and stores it to a String array. Fields may be wrapped in
+     * double quotes to contain the delimiter, and a doubled quote
+     * inside a quoted field is read as a single quote. Only the
+     * requested column is copied out of each line; the other
+     * fields are skipped over. Lines that are missing the column
+     * are stored as an empty String. Quoted fields may not span
+     * multiple lines.
+     *
+     * Example:
+     * Utils.fileReadColumn("scores.csv", ',', 1, names);
+     *
+     * @param  fileName  the file name
+     * @param  delimiter the character separating each field
+     * @param  column    the column to read, starting from 0
+     * @param  arr       the String array to store the data into
+     * @return the number of lines read from the file, or -1 if
+     *         the file could not be read
+     */
+    public static int fileReadColumn (String fileName, char delimiter, int column, String[] arr) {
+        return readColumns(DefaultContext.INSTANCE, fileName, delimiter, new int[] { column }, new Object[] { arr });
+    }
+
+    /**
+     * Reads one column of a delimited file and stores it to an
+     * int array. Empty or missing fields are stored as 0.
+     *
+     * @param  fileName  the file name
+     * @param  delimiter the character separating each field
+     * @param  column    the column to read, starting from 0
+     * @param  arr       the int array to store the data into
+     * @return the number of lines read from the file, or -1 if
+     *         the file could not be read or a field is not an int
+     */
+    public static int fileReadColumn (String fileName, char delimiter, int column, int[] arr) {
+        return readColumns(DefaultContext.INSTANCE, fileName, delimiter, new int[] { column }, new Object[] { arr });
+    }
+
+    /**
+     * Reads one column of a delimited file and stores it to a
+     * double array. Empty or missing fields are stored as 0.
+     *
+     * @param  fileName  the file name
+     * @param  delimiter the character separating each field
+     * @param  column    the column to read, starting from 0
+     * @param  arr       the double array to store the data into
+     * @return the number of lines read from the file, or -1 if
+     *         the file could not be read or a field is not a number
+     */
+    public static int fileReadColumn (String fileName, char delimiter, int column, double[] arr) {
+        return readColumns(DefaultContext.INSTANCE, fileName, delimiter, new int[] { column }, new Object[] { arr });
+    }
+
+    /**
+     * Reads one column of a delimited file and stores it to a
+     * float array. Empty or missing fields are stored as 0.
+     *
+     * @param  fileName  the file name
+     * @param  delimiter the character separating each field
+     * @param  column    the column to read, starting from 0
+     * @param  arr       the float array to store the data into
+     * @return the number of lines read from the file, or -1 if
+     *         the file could not be read or a field is not a number
+     */
+    public static int fileReadColumn (String fileName, char delimiter, int column, float[] arr) {
+        return readColumns(DefaultContext.INSTANCE, fileName, delimiter, new int[] { column }, new Object[] { arr });
+    }
+
+    /**
+     * Reads several columns of a delimited file in one pass and
+     * stores each to its own array. Each array may be a String,
+     * int, double or float array, and is filled as the
+     * fileReadColumn of that type fills it. Each line is walked
+     * once and only the requested fields are copied out of it, so
+     * reading several columns costs one pass over the file rather
+     * than one pass per column. The same column may be given more
+     * than once.
+     *
+     * Example:
+     * Utils.fileReadColumn("scores.csv", ',', new int[] {0, 2}, new Object[] {names, scores});
+     *
+     * @param  fileName  the file name
+     * @param  delimiter the character separating each field
+     * @param  columns   the columns to read, starting from 0
+     * @param  arrs      the array to store each column into
+     * @return the number of lines read from the file, at most the
+     *         length of the shortest array, or -1 if the file could
+     *         not be read or a field could not be parsed
+     */
+    public static int fileReadColumn (String fileName, char delimiter, int[] columns, Object[] arrs) {
+        return readColumns(DefaultContext.INSTANCE, fileName, delimiter, columns, arrs);
+    }
+
+    /**
+     * Reads columns of a delimited file into arrays in one pass,
+     * parsing each line's fields as soon as they are split out, so
+     * typed columns are filled without keeping every field as a
+     * String. Missing fields are stored as an empty String, or
+     * left as 0 in a number array.
+     *
+     * @param  context   the Context to read the file with
+     * @param  fileName  the file name
+     * @param  delimiter the character separating each field
+     * @param  columns   the columns to read, starting from 0
+     * @param  arrs      the int, double, float or String array to
+     *                   store each column into
+     * @return the number of lines read from the file, or -1 if
+     *         the file could not be read or a field could not be
+     *         parsed
+     */
+    private static int readColumns (Context context, String fileName, char delimiter, int[] columns, Object[] arrs) {
+
+        context.checkOpen();
+
+        if (columns.length != arrs.length) {
+            System.out.printf("ERR: Unable to read %d columns into %d arrays.\n", columns.length, arrs.length);
+            return -1;
+        }
+
+        int length = Integer.MAX_VALUE;
+        int last = -1;
+
+        for (int i = 0; i < arrs.length; i++) {
+
+            if (columnLength(arrs[i]) < 0) {
+                System.out.printf("ERR: Unable to read a column into array %d. It is not an int, double, float or String array.\n", i);
+                return -1;
+            }
+
+            length = Math.min(length, columnLength(arrs[i]));
+            last = Math.max(last, columns[i]);
+            initColumn(arrs[i]);
+        }
+
+        boolean[] wanted = new boolean[last + 1];
+        String[] fields = new String[last + 1];
+
+        for (int column : columns) {
+
+            if (column >= 0) {
+                wanted[column] = true;
+            }
+        }
+
+        int index = 0;
+        byte[] buf = context.acquireBuffer();
+
+        try (LineReader reader = context.openLines(fileName, Charset.defaultCharset(), buf)) {
+
+            context.track(reader, fileName);
+
+            try {
+                String line;
+
+                while (index != length && (line = reader.readLine()) != null) {
+
+                    Arrays.fill(fields, "");
+                    getColumns(line, delimiter, wanted, fields);
+
+                    for (int i = 0; i < columns.length; i++) {
+
+                        String field = columns[i] < 0 ? "" : fields[columns[i]];
+
+                        try {
+                            storeField(arrs[i], index, field);
+
+                        } catch (NumberFormatException e) {
+
+                            System.out.printf("ERR: Unable to read '%s' on line %d of file '%s' as %s.\n", field, index + 1, fileName,
+                                    arrs[i] instanceof int[] ? "an int" : "a number");
+                            return -1;
+                        }
+                    }
+                    index++;
+                }
+
+            } finally {
+                context.untrack(reader);
+            }
+
+        } catch (FileNotFoundException e) {
+
+            System.out.printf("ERR: Unable to open file '%s'. Is the file in the root folder of this program?\n", fileName);
+            return -1;
+
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to read file '%s'.\n", fileName);
+            return -1;
+
+        } finally {
+            context.releaseBuffer(buf);
+        }
+        return index;
+    }
+
+    /**
+     * Sets every element of an int, double, float or String array
+     * to its default, as initArray does.
+     *
+     * @param  arr       the array to initialize
+     */
+    private static void initColumn (Object arr) {
+
+        if (arr instanceof int[]) {
+            initArray((int[]) arr);
+        }
+
+        else if (arr instanceof double[]) {
+            initArray((double[]) arr);
+        }
+
+        else if (arr instanceof float[]) {
+            initArray((float[]) arr);
+        }
+
+        else {
+            initArray((String[]) arr);
+        }
+    }
+
+    /**
+     * Stores a field into an int, double, float or String array,
+     * parsing it for the number arrays. An empty field leaves a
+     * number array's element as it is.
+     *
+     * @param  arr       the array to store into
+     * @param  index     the index to store at
+     * @param  field     the field to store
+     * @throws NumberFormatException if the field is not a number of the array's type
+     */
+    private static void storeField (Object arr, int index, String field) {
+
+        if (arr instanceof String[]) {
+            ((String[]) arr)[index] = field;
+        }
+
+        else if (field.isEmpty()) {
+            return;
+        }
+
+        else if (arr instanceof int[]) {
+            ((int[]) arr)[index] = Integer.parseInt(field.trim());
+        }
+
+        else if (arr instanceof double[]) {
+            ((double[]) arr)[index] = Double.parseDouble(field);
+        }
+
+        else {
+            ((float[]) arr)[index] = Float.parseFloat(field);
+        }
+    }
+
+    /**
+     * Splits the wanted fields out of a delimited line. Walks the
+     * line once, stopping after the last wanted field, and only
+     * copies the characters of wanted fields. Unquoted fields are
+     * stored as a substring of the line. Fields the line does not
+     * have are left as they were.
+     *
+     * @param  line      the line to split
+     * @param  delimiter the character separating each field
+     * @param  wanted    whether each field, starting from 0, is wanted
+     * @param  fields    the array to store each wanted field into,
+     *                   at the field's index
+     */
+    private static void getColumns (String line, char delimiter, boolean[] wanted, String[] fields) {
+
+        final int FIELD_START     = 0;
+        final int UNQUOTED        = 1;
+        final int QUOTED          = 2;
+        final int QUOTE_IN_QUOTED = 3;
+
+        int state = FIELD_START;
+        int current = 0;
+        int start = 0;
+        StringBuilder field = null;
+
+        for (int i = 0; i <= line.length() && current < wanted.length; i++) {
+
+            // The end of the line, or the delimiter outside quotes, ends the field
+            if (i == line.length() || line.charAt(i) == delimiter && state != QUOTED) {
+
+                if (wanted[current]) {
+                    fields[current] = field != null ? field.toString() : state == FIELD_START ? "" : line.substring(start, i);
+                }
+
+                current++;
+                state = FIELD_START;
+                field = null;
+                continue;
+            }
+
+            char c = line.charAt(i);
+
+            switch (state) {
+
+                case FIELD_START:
+                    start = i;
+
+                    if (c == '"') {
+                        state = QUOTED;
+
+                        if (wanted[current]) {
+                            field = new StringBuilder();
+                        }
+                        continue;
+                    }
+
+                    state = UNQUOTED;
+                    break;
+
+                case QUOTED:
+                    if (c == '"') {
+                        state = QUOTE_IN_QUOTED;
+                        continue;
+                    }
+                    break;
+
+                case QUOTE_IN_QUOTED:
+                    // A doubled quote is a literal quote, anything else closes the quotes
+                    state = c == '"' ? QUOTED : UNQUOTED;
+                    break;
+
+                default:
+                    break;
+            }
+
+            if (field != null) {
+                field.append(c);
+            }
+        }
+    }
+
+    /**
+     * Opens a file for reading. If the file starts with the gzip
+     * magic bytes, it is decompressed on a background thread while
+     * the caller reads from the returned stream.
+     *
+     * @param  fileName the file name
+     * @return the stream to read the file's contents from
+     * @throws FileNotFoundException if the file cannot be opened
+     * @throws IOException if unable to read the file's header
+     */
+    private static InputStream openInput (String fileName) throws IOException {
+
+        InputStream in = new BufferedInputStream(new FileInputStream(fileName), GZIP_BUFFER_SIZE);
+
+        try {
+            in.mark(2);
+            int b1 = in.read();
+            int b2 = in.read();
+            in.reset();
+
+            if (b1 == (GZIPInputStream.GZIP_MAGIC & 0xff) && b2 == (GZIPInputStream.GZIP_MAGIC >>> 8)) {
+                return new PrefetchInputStream(new GZIPInputStream(in, GZIP_BUFFER_SIZE));
+            }
+
+        } catch (IOException e) {
+
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    /**
+     * Reads every line of a file, decoded with the platform's
+     * default charset. Gzip files are decompressed.
+     *
+     * @param  context  the Context to read the file with
+     * @param  fileName the file name
+     * @return the file's lines
+     * @throws IOException if unable to read the file
+     */
+    private static String[] readAllLines (Context context, String fileName) throws IOException {
+
+        context.checkOpen();
+
+        List<String> lines = new ArrayList<>();
+        byte[] buf = context.acquireBuffer();
+
+        try (LineReader reader = context.openLines(fileName, Charset.defaultCharset(), buf)) {
+
+            context.track(reader, fileName);
+
+            try {
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+
+            } finally {
+                context.untrack(reader);
+            }
+
+        } finally {
+            context.releaseBuffer(buf);
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    /**
+     * Reads a file and stores each line as an id from a Dictionary,
+     * rather than as its own String. Equal lines share one id and
+     * one String in the Dictionary, so files with many repeated
+     * lines take a fraction of the memory fileRead would use.
+     * Unused ids are set to -1, which the Dictionary reads as
+     * the empty String without holding it.
+     *
+     * The file is decoded with the platform's default charset.
+     *
+     * Example:
+     * Utils.Dictionary dict = new Utils.Dictionary(1000);
+     * int lines = Utils.fileReadEncoded("status.log", ids, dict);
+     * String third = dict.get(ids[2]);
+     *
+     * @param  fileName the file name
+     * @param  ids      the int array to store the line ids into
+     * @param  dict     the Dictionary to add the lines to
+     * @return the number of lines read from the file, or -1 if the
+     *         file could not be read or the Dictionary is full
+     */
+    public static int fileReadEncoded (String fileName, int[] ids, Dictionary dict) {
+        return fileReadEncoded(DefaultContext.INSTANCE, fileName, ids, dict);
+    }
+
+    /**
+     * Reads a file's lines as dictionary ids with a buffer and
+     * decoder lent by a Context, tracking the file while it is
+     * open.
+     *
+     * @param  context  the Context to read the file with
+     * @param  fileName the file name
+     * @param  ids      the int array to store the line ids into
+     * @param  dict     the Dictionary to add the lines to
+     * @return the number of lines read from the file, or -1 if the
+     *         file could not be read or the Dictionary is full
+     */
+    private static int fileReadEncoded (Context context, String fileName, int[] ids, Dictionary dict) {
+
+        context.checkOpen();
+
+        int index = 0;
+        byte[] buf = context.acquireBuffer();
+
+        try (LineReader reader = context.openLines(fileName, Charset.defaultCharset(), buf)) {
+
+            context.track(reader, fileName);
+
+            try {
+                String line;
+                initArray(ids, Dictionary.UNUSED);
+
+                while (index != ids.length && (line = reader.readLine()) != null) {
+
+                    int id = dict.intern(line);
+
+                    if (id < 0) {
+                        System.out.printf("ERR: Dictionary is full while reading file '%s'.\n", fileName);
+                        return -1;
+                    }
+                    ids[index++] = id;
+                }
+
+            } finally {
+                context.untrack(reader);
+            }
+
+        } catch (FileNotFoundException e) {
+
+            System.out.printf("ERR: Unable to open file '%s'. Is the file in the root folder of this program?\n", fileName);
+            return -1;
+
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to read file '%s'.\n", fileName);
+            return -1;
+
+        } finally {
+            context.releaseBuffer(buf);
+        }
+        return index;
+    }
+
+    /**
+     * Searches a file for lines containing a String, and stores
+     * the matching lines to a String array. Stops once the array
+     * is full.
+     *
+     * @param  fileName the file name
+     * @param  literal  the String to search for
+     * @param  arr      the String array to store the matching lines into
+     * @return the number of matching lines, or -1 if the file
+     *         could not be read
+     */
+    public static int fileSearch (String fileName, String literal, String[] arr) {
+        return fileSearch(fileName, literal, arr, null);
+    }
+
+    /**
+     * Searches a file for lines containing a String, and stores
+     * the matching lines to a String array and the byte offset
+     * where each line starts to a long array. Stops once the
+     * String array is full.
+     *
+     * The file is searched as raw bytes straight from memory-mapped
+     * storage, so lines that do not match are never turned into
+     * Strings. The search checks 8 bytes at a time for the first
+     * byte of the String, then confirms the last byte before
+     * comparing the rest. Large files are split on line breaks and
+     * searched on all cores.
+     *
+     * The file and the String are encoded with the platform's
+     * default charset. Gzip files cannot be searched.
+     *
+     * Example:
+     * int found = Utils.fileSearch("server.log", "ERROR", lines, offsets);
+     *
+     * @param  fileName the file name
+     * @param  literal  the String to search for
+     * @param  arr      the String array to store the matching lines into
+     * @param  offsets  the long array to store the offsets into, or null
+     * @return the number of matching lines, or -1 if the file
+     *         could not be read
+     */
+    public static int fileSearch (String fileName, String literal, String[] arr, long[] offsets) {
+        return fileSearch(DefaultContext.INSTANCE, fileName, new LiteralMatcher(literal.getBytes(Charset.defaultCharset())), arr, offsets);
+    }
+
+    /**
+     * Searches a file for lines containing any of several Strings,
+     * and stores the matching lines to a String array. Stops once
+     * the array is full.
+     *
+     * @param  fileName the file name
+     * @param  literals the Strings to search for
+     * @param  arr      the String array to store the matching lines into
+     * @return the number of matching lines, or -1 if the file
+     *         could not be read
+     */
+    public static int fileSearch (String fileName, String[] literals, String[] arr) {
+        return fileSearch(fileName, literals, arr, null);
+    }
+
+    /**
+     * Searches a file for lines containing any of several Strings,
+     * and stores the matching lines to a String array and the byte
+     * offset where each line starts to a long array. Stops once the
+     * String array is full.
+     *
+     * All of the Strings are found in a single pass over each line
+     * with the Aho-Corasick algorithm, so searching for many
+     * Strings costs about the same as searching for one. Otherwise
+     * works like the single String version.
+     *
+     * @param  fileName the file name
+     * @param  literals the Strings to search for
+     * @param  arr      the String array to store the matching lines into
+     * @param  offsets  the long array to store the offsets into, or null
+     * @return the number of matching lines, or -1 if the file
+     *         could not be read
+     */
+    public static int fileSearch (String fileName, String[] literals, String[] arr, long[] offsets) {
+        return fileSearch(DefaultContext.INSTANCE, fileName, literalsMatcher(literals), arr, offsets);
+    }
+
+    /**
+     * Makes the matcher fileSearch uses for several Strings.
+     *
+     * @param  literals the Strings to search for
+     * @return the matcher
+     */
+    private static ByteMatcher literalsMatcher (String[] literals) {
+
+        byte[][] patterns = new byte[literals.length][];
+
+        for (int i = 0; i < literals.length; i++) {
+            patterns[i] = literals[i].getBytes(Charset.defaultCharset());
+        }
+        return new AhoCorasickMatcher(patterns);
+    }
+
+    /**
+     * Searches a file for matching lines. The file is split into
+     * chunks that each end on a line break, and the chunks are
+     * mapped and searched in parallel. Each chunk stops once it
+     * alone has filled the array; the chunks' matches are then
+     * joined in file order.
+     *
+     * @param  context  the Context to read the file with
+     * @param  fileName the file name
+     * @param  matcher  finds matches within the bytes of a line
+     * @param  arr      the String array to store the matching lines into
+     * @param  offsets  the long array to store the offsets into, or null
+     * @return the number of matching lines, or -1 if the file
+     *         could not be read
+     */
+    private static int fileSearch (Context context, String fileName, ByteMatcher matcher, String[] arr, long[] offsets) {
+
+        context.checkOpen();
+
+        int index = 0;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+
+            context.track(channel, fileName);
+
+            try {
+                long size = channel.size();
+                int chunks = (int) Math.max(size / SEARCH_CHUNK_MAX, Math.min(ForkJoinPool.getCommonPoolParallelism(), size / SEARCH_CHUNK_MIN));
+                long[] starts = new long[chunks + 2];
+
+                // Move each split forward to just after the next line break
+                for (int c = 1; c <= chunks; c++) {
+                    starts[c] = nextLineStart(channel, Math.max(starts[c - 1], size * c / (chunks + 1)));
+                }
+                starts[chunks + 1] = size;
+
+                List<List<LineMatch>> found = IntStream.range(0, chunks + 1).parallel()
+                        .mapToObj(c -> searchChunk(channel, starts[c], starts[c + 1], matcher, arr.length))
+                        .collect(Collectors.toList());
+
+                initArray(arr);
+
+                for (List<LineMatch> matches : found) {
+                    for (LineMatch match : matches) {
+
+                        if (index == arr.length) {
+                            return index;
+                        }
+
+                        if (offsets != null && index < offsets.length) {
+                            offsets[index] = match.offset;
+                        }
+                        arr[index++] = match.line;
+                    }
+                }
+
+            } finally {
+                context.untrack(channel);
+            }
+
+        } catch (NoSuchFileException e) {
+
+            System.out.printf("ERR: Unable to open file '%s'. Is the file in the root folder of this program?\n", fileName);
+            return -1;
+
+        } catch (IOException | UncheckedIOException e) {
+
+            System.out.printf("ERR: Unable to read file '%s'.\n", fileName);
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the offset just after the next line break at or
+     * after a given offset, or the end of the file if there is
+     * no line break.
+     *
+     * @param  channel  the file
+     * @param  from     the offset to start looking at
+     * @return the offset of the next line's start
+     * @throws IOException if unable to read the file
+     */
+    private static long nextLineStart (FileChannel channel, long from) throws IOException {
+
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long pos = from;
+
+        while (true) {
+
+            buf.clear();
+            int n = channel.read(buf, pos);
+
+            if (n < 0) {
+                return channel.size();
+            }
+
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Maps one chunk of a file and returns up to a limit of its
+     * lines that match.
+     *
+     * @param  channel  the file
+     * @param  start    the chunk's first byte, at the start of a line
+     * @param  end      the chunk's end, just after a line break or at
+     *                  the end of the file
+     * @param  matcher  finds matches within the bytes of a line
+     * @param  limit    the most matching lines to return
+     * @return the matching lines, in file order
+     */
+    private static List<LineMatch> searchChunk (FileChannel channel, long start, long end, ByteMatcher matcher, int limit) {
+
+        List<LineMatch> matches = new ArrayList<>();
+
+        if (start >= end || limit == 0) {
+            return matches;
+        }
+
+        try {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start).order(ByteOrder.LITTLE_ENDIAN);
+            int limitPos = buf.limit();
+            int pos = 0;
+
+            while (pos < limitPos && matches.size() < limit) {
+
+                int hit = matcher.find(buf, pos, limitPos);
+
+                if (hit < 0) {
+                    break;
+                }
+
+                // Widen the hit out to the line around it
+                int lineStart = hit;
+
+                while (lineStart > pos && buf.get(lineStart - 1) != '\n') {
+                    lineStart--;
+                }
+
+                int lineEnd = hit;
+
+                while (lineEnd < limitPos && buf.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+
+                int textEnd = lineEnd > lineStart && buf.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                byte[] bytes = new byte[textEnd - lineStart];
+
+                buf.get(lineStart, bytes);
+                matches.add(new LineMatch(start + lineStart, new String(bytes, Charset.defaultCharset())));
+
+                pos = lineEnd + 1;
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return matches;
+    }
+
+    /**
+     * Writes a String array to a file. Each String element
+     * is written on its own line. The file is encoded with
+     * the platform's default charset.
+     *
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @return true if write was successful, false otherwise
+     * @throws IOException if unable to write to file
+     */
+    public static boolean fileWrite (String fileName, String[] arr) {
+        return fileWrite(fileName, arr, Charset.defaultCharset());
+    }
+
+    /**
+     * Writes a String array to a file with a given charset.
+     * Each String element is written on its own line.
+     *
+     * Example:
+     * Utils.fileWrite("data.txt", arr, StandardCharsets.UTF_8);
+     *
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @param  charset     the charset to encode the file with
+     * @return true if write was successful, false otherwise
+     * @throws IOException if unable to write to file
+     */
+    public static boolean fileWrite (String fileName, String[] arr, Charset charset) {
+        return fileWrite(DefaultContext.INSTANCE, fileName, arr, charset);
+    }
+
+    /**
+     * Writes lines to a file, encoding them with a buffer and
+     * encoder lent by a Context and tracking the file while it is
+     * open.
+     *
+     * @param  context     the Context to write the file with
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @param  charset     the charset to encode the file with
+     * @return true if write was successful, false otherwise
+     */
+    private static boolean fileWrite (Context context, String fileName, String[] arr, Charset charset) {
+
+        context.checkOpen();
+
+        File myFile = new File(fileName);
+
+        try {
+            if (!promptOverwrite(myFile)) {
+                return false;
+            }
+
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to create file '%s'.\n", fileName);
+            return false;
+        }
+
+        byte[] buf = context.acquireBuffer();
+
+        try (FileChannel channel = FileChannel.open(myFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            context.track(channel, fileName);
+
+            try {
+                context.writeLines(channel, arr, charset, buf);
+
+            } finally {
+                context.untrack(channel);
+            }
+
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to create file '%s'.\n", fileName);
+            return false;
+
+        } finally {
+            context.releaseBuffer(buf);
+        }
+
+        System.out.printf("File '%s' written to.\n\n", myFile.getName());
+        return true;
+    }
+
+    /**
+     * Writes lines stored as Dictionary ids to a file, such as
+     * those read by fileReadEncoded. Each line is written on its
+     * own line. The file is encoded with the platform's default
+     * charset.
+     *
+     * @param  fileName    the file name
+     * @param  ids         the line ids to write with
+     * @param  dict        the Dictionary the ids belong to
+     * @return true if write was successful, false otherwise
+     */
+    public static boolean fileWrite (String fileName, int[] ids, Dictionary dict) {
+        return fileWrite(fileName, dict.decode(ids));
+    }
+
+    /**
+     * Writes a String array to a file without ever leaving a
+     * partly written file behind. The file is encoded with the
+     * platform's default charset. See the batch version for
+     * details.
+     *
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @param  policy      how much to flush to disk before returning
+     * @return true if write was successful, false otherwise
+     */
+    public static boolean fileWriteAtomic (String fileName, String[] arr, SyncPolicy policy) {
+        return fileWriteAtomic(fileName, arr, Charset.defaultCharset(), policy);
+    }
+
+    /**
+     * Writes a String array to a file with a given charset,
+     * without ever leaving a partly written file behind. See the
+     * batch version for details.
+     *
+     * Example:
+     * Utils.fileWriteAtomic("save.txt", arr, StandardCharsets.UTF_8, Utils.SyncPolicy.DATA);
+     *
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @param  charset     the charset to encode the file with
+     * @param  policy      how much to flush to disk before returning
+     * @return true if write was successful, false otherwise
+     */
+    public static boolean fileWriteAtomic (String fileName, String[] arr, Charset charset, SyncPolicy policy) {
+        return fileWriteAtomic(new String[] { fileName }, new String[][] { arr }, charset, policy);
+    }
+
+    /**
+     * Writes several String arrays to several files, without ever
+     * leaving a partly written file behind. fileNames[i] is written
+     * with arrs[i], each String element on its own line.
+     *
+     * Each file is first written to a hidden temporary file in the
+     * same folder, flushed to disk according to the policy, and then
+     * renamed over the target. A crash leaves either the old or the
+     * new contents, never a mix. With SyncPolicy.METADATA, each folder
+     * is flushed once after all of its files are renamed, so saving
+     * many files costs one folder flush rather than one per file.
+     *
+     * Unlike fileWrite, existing files are replaced without asking.
+     * A replaced file keeps its permissions on systems that have
+     * POSIX permissions; the temporary file is made with them, so
+     * the new contents are never readable by more users than the
+     * old were.
+     *
+     * @param  fileNames   the file names
+     * @param  arrs        the String arrays to write with, one per file
+     * @param  charset     the charset to encode the files with
+     * @param  policy      how much to flush to disk before returning
+     * @return true if every file was written, false otherwise
+     */
+    public static boolean fileWriteAtomic (String[] fileNames, String[][] arrs, Charset charset, SyncPolicy policy) {
+        return fileWriteAtomic(DefaultContext.INSTANCE, fileNames, arrs, charset, policy);
+    }
+
+    /**
+     * Writes each array to a temporary file next to its target,
+     * encoding with a buffer and encoder lent by a Context, then
+     * renames the temporary files over their targets.
+     *
+     * @param  context     the Context to write the files with
+     * @param  fileNames   the file names
+     * @param  arrs        the String arrays to write with, one per file
+     * @param  charset     the charset to encode the files with
+     * @param  policy      how much to flush to disk before returning
+     * @return true if every file was written, false otherwise
+     */
+    private static boolean fileWriteAtomic (Context context, String[] fileNames, String[][] arrs, Charset charset, SyncPolicy policy) {
+
+        context.checkOpen();
+
+        if (fileNames.length != arrs.length) {
+            System.out.printf("ERR: Unable to write %d arrays to %d files.\n", arrs.length, fileNames.length);
+            return false;
+        }
+
+        Path[] targets = new Path[fileNames.length];
+        Path[] temps = new Path[fileNames.length];
+        byte[] buf = context.acquireBuffer();
+        int index = 0;
+
+        try {
+            for (; index < fileNames.length; index++) {
+
+                targets[index] = Paths.get(fileNames[index]).toAbsolutePath();
+                temps[index] = targets[index].resolveSibling(String.format(".%s.%x.tmp",
+                        targets[index].getFileName(), ThreadLocalRandom.current().nextLong()));
+
+                Set<PosixFilePermission> permissions = posixPermissions(targets[index]);
+                FileAttribute<?>[] attributes = permissions == null ? new FileAttribute<?>[0]
+                        : new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(permissions) };
+
+                try (FileChannel channel = FileChannel.open(temps[index],
+                        Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), attributes)) {
+
+                    context.track(channel, fileNames[index]);
+
+                    try {
+                        // The umask may have taken bits away when the file was made
+                        if (permissions != null) {
+                            Files.setPosixFilePermissions(temps[index], permissions);
+                        }
+
+                        context.writeLines(channel, arrs[index], charset, buf);
+
+                        if (policy != SyncPolicy.NONE) {
+                            channel.force(policy == SyncPolicy.METADATA);
+                        }
+
+                    } finally {
+                        context.untrack(channel);
+                    }
+                }
+            }
+
+            Set<Path> folders = new LinkedHashSet<>();
+
+            for (index = 0; index < fileNames.length; index++) {
+                Files.move(temps[index], targets[index], StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                temps[index] = null;
+                folders.add(targets[index].getParent());
+                System.out.printf("File '%s' written to.\n", targets[index].getFileName());
+            }
+
+            System.out.println();
+
+            if (policy == SyncPolicy.METADATA) {
+                for (Path folder : folders) {
+                    syncFolder(folder);
+                }
+            }
+
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to write file '%s'.\n", fileNames[Math.min(index, fileNames.length - 1)]);
+
+            for (Path temp : temps) {
+                if (temp != null) {
+                    new File(temp.toString()).delete();
+                }
+            }
+            return false;
+
+        } finally {
+            context.releaseBuffer(buf);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a file's POSIX permissions.
+     *
+     * @param  path        the file
+     * @return the permissions, or null if the file does not exist
+     *         or the platform does not have POSIX permissions
+     * @throws IOException if unable to read the permissions
+     */
+    private static Set<PosixFilePermission> posixPermissions (Path path) throws IOException {
+
+        try {
+            return Files.getPosixFilePermissions(path);
+
+        } catch (NoSuchFileException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Flushes a folder's entries to disk, so that files renamed
+     * into it survive a crash. Some platforms, such as Windows,
+     * cannot open a folder for this; there it does nothing.
+     *
+     * @param  folder      the folder to flush
+     */
+    private static void syncFolder (Path folder) {
+
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+
+        } catch (IOException e) {
+            // Not supported on this platform
+        }
+    }
+
+    /**
+     * Writes a String array to a gzip-compressed file. Each
+     * String element is written on its own line. The file is
+     * encoded with the platform's default charset.
+     *
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @return true if write was successful, false otherwise
+     * @throws IOException if unable to write to file
+     */
+    public static boolean fileWriteCompressed (String fileName, String[] arr) {
+        return fileWriteCompressed(fileName, arr, Charset.defaultCharset());
+    }
+
+    /**
+     * Writes a String array to a gzip-compressed file with a
+     * given charset. Each String element is written on its own
+     * line. The file can be read back with fileRead.
+     *
+     * The lines are split into blocks of about 1 MB that are
+     * compressed in parallel, one gzip member per block, the same
+     * way pigz does. Any gzip reader decompresses the members one
+     * after another as a single file.
+     *
+     * Example:
+     * Utils.fileWriteCompressed("log.txt.gz", arr, StandardCharsets.UTF_8);
+     *
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @param  charset     the charset to encode the file with
+     * @return true if write was successful, false otherwise
+     * @throws IOException if unable to write to file
+     */
+    public static boolean fileWriteCompressed (String fileName, String[] arr, Charset charset) {
+        return fileWriteCompressed(DefaultContext.INSTANCE, fileName, arr, charset);
+    }
+
+    /**
+     * Writes lines to a gzip file, tracking it in a Context while
+     * it is open.
+     *
+     * @param  context     the Context to track the file in
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @param  charset     the charset to encode the file with
+     * @return true if write was successful, false otherwise
+     */
+    private static boolean fileWriteCompressed (Context context, String fileName, String[] arr, Charset charset) {
+
+        context.checkOpen();
+
+        try {
+            File myFile;
+            myFile = new File (fileName);
+
+            if (!promptOverwrite(myFile)) {
+                return false;
+            }
+
+            // Find where each block starts, ending the last one at arr.length
+            int[] starts = new int[arr.length + 2];
+            int blocks = 0;
+            long blockChars = GZIP_BLOCK_SIZE;
+
+            for (int i = 0; i < arr.length; i++) {
+
+                if (blockChars >= GZIP_BLOCK_SIZE) {
+                    starts[blocks++] = i;
+                    blockChars = 0;
+                }
+                blockChars += arr[i].length() + 1;
+            }
+
+            // A gzip file needs at least one member, even an empty one
+            blocks = Math.max(blocks, 1);
+            starts[blocks] = arr.length;
+
+            final int[] blockStarts = starts;
+
+            byte[][] members = IntStream.range(0, blocks).parallel()
+                    .mapToObj(b -> compressLines(arr, blockStarts[b], blockStarts[b + 1], charset))
+                    .toArray(byte[][]::new);
+
+            try (OutputStream myStream = new FileOutputStream(fileName)) {
+
+                context.track(myStream, fileName);
+
+                try {
+                    for (byte[] member : members) {
+                        myStream.write(member);
+                    }
+
+                } finally {
+                    context.untrack(myStream);
+                }
+            }
+
+            System.out.printf("File '%s' written to.\n\n", myFile.getName());
+
+        } catch (IOException | UncheckedIOException e) {
+
+            System.out.printf("ERR: Unable to create file '%s'.\n", fileName);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compresses a range of lines into one complete gzip member.
+     *
+     * @param  arr     the lines to compress
+     * @param  from    the first line, inclusive
+     * @param  to      the last line, exclusive
+     * @param  charset the charset to encode the lines with
+     * @return the gzip member
+     */
+    private static byte[] compressLines (String[] arr, int from, int to, Charset charset) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (Writer myWriter = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(bytes, GZIP_BUFFER_SIZE), charset))) {
+
+            for (int i = from; i < to; i++) {
+                myWriter.write(arr[i]);
+                myWriter.write('\n');
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a String array to a file while holding a lock on it,
+     * so that other processes using fileWriteLocked wait rather
+     * than mixing their output into it. The file is encoded with
+     * the platform's default charset.
+     *
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @return true if write was successful, false otherwise
+     */
+    public static boolean fileWriteLocked (String fileName, String[] arr) {
+        return fileWriteLocked(fileName, arr, Charset.defaultCharset());
+    }
+
+    /**
+     * Writes a String array to a file with a given charset while
+     * holding a lock on it. Each String element is written on its
+     * own line.
+     *
+     * The file is created if needed and locked with an exclusive
+     * FileChannel lock over the whole file before it is cut down and
+     * rewritten, so it is never checked and then created in two steps
+     * as fileWrite does, and writers never prompt or overlap. Threads
+     * in this program also wait for each other, since a FileChannel
+     * lock only keeps out other processes. The lock is advisory: it
+     * only holds back writers that also use it.
+     *
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @param  charset     the charset to encode the file with
+     * @return true if write was successful, false otherwise
+     */
+    public static boolean fileWriteLocked (String fileName, String[] arr, Charset charset) {
+        return fileWriteLocked(DefaultContext.INSTANCE, fileName, arr, charset);
+    }
+
+    /**
+     * Writes lines to a file while holding a lock on it, tracking
+     * it in a Context while it is open.
+     *
+     * @param  context     the Context to track the file in
+     * @param  fileName    the file name
+     * @param  arr         the String array to write with
+     * @param  charset     the charset to encode the file with
+     * @return true if write was successful, false otherwise
+     */
+    private static boolean fileWriteLocked (Context context, String fileName, String[] arr, Charset charset) {
+
+        context.checkOpen();
+
+        Path path = Paths.get(fileName).toAbsolutePath().normalize();
+        ByteBuffer contents = encodeLines(arr, charset);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+
+            context.track(channel, fileName);
+
+            ReentrantLock threadLock = null;
+
+            try {
+                threadLock = FileLocks.forFile(path);
+                threadLock.lock();
+
+                FileLock processLock = channel.lock();
+
+                try {
+                    channel.truncate(0);
+
+                    while (contents.hasRemaining()) {
+                        channel.write(contents);
+                    }
+
+                } finally {
+                    processLock.release();
+                }
+
+            } finally {
+
+                if (threadLock != null) {
+                    threadLock.unlock();
+                }
+                context.untrack(channel);
+            }
+
+        } catch (OverlappingFileLockException e) {
+
+            System.out.printf("ERR: File '%s' is already locked by this program.\n", fileName);
+            return false;
+
+        } catch (IOException e) {
+
+            System.out.printf("ERR: Unable to write file '%s'.\n", fileName);
+            return false;
+        }
+
+        System.out.printf("File '%s' written to.\n\n", path.getFileName());
+        return true;
+    }
+
+    /**
+     * Creates a file if it does not exist. If it does, asks the
+     * user whether to overwrite it.
+     *
+     * @param  myFile      the file to create
+     * @return true if the file may be written to, false otherwise
+     * @throws IOException if unable to create the file
+     */
+    private static boolean promptOverwrite (File myFile) throws IOException {
+
+        if (myFile.createNewFile()) {
+            System.out.printf("File '%s' created.\n", myFile.getName());
+            return true;
+        }
+
+        System.out.printf("ERR: File '%s' already exists. ", myFile.getName());
+        return promptYN("Would you like to overwrite (Y/N)?\n");
+    }
+
+
+
+
+    /**
+     * Returns the date and time and returns it as a String. Format
+     * is dd-MM-yyy HH:mm:ss, with HH in 24-hour time.
+     *
+     * Example:
+     * 25-Nov-2020 10:09:32
+     *
+     * @return the date / time as a String
+     */
+    public static String getDateTime() {
+
+        LocalDateTime myDateObj = LocalDateTime.now();
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        int year = myDateObj.getYear();
+
+        // A DateTimeFormatter loads the locale's month names on first use, which
+        // dominates start-up; build the common English case by hand instead
+        if (!(locale.equals(Locale.US) || locale.equals(Locale.ENGLISH) || locale.equals(Locale.ROOT))
+                || year < 1000 || year > 9999) {
+            return myDateObj.format(DateTimeFormat.FORMAT);
+        }
+
+        StringBuilder myDateStr = new StringBuilder(20);
+
+        appendTwoDigits(myDateStr, myDateObj.getDayOfMonth());
+        myDateStr.append('-').append(MONTHS[myDateObj.getMonthValue() - 1]).append('-').append(year).append(' ');
+        appendTwoDigits(myDateStr, myDateObj.getHour());
+        myDateStr.append(':');
+        appendTwoDigits(myDateStr, myDateObj.getMinute());
+        myDateStr.append(':');
+        appendTwoDigits(myDateStr, myDateObj.getSecond());
+
+        return myDateStr.toString();
+    }
+
+    /**
+     * Appends a number from 0 to 99 as two digits.
+     *
+     * @param str     the StringBuilder to append to
+     * @param num     the number to append
+     */
+    private static void appendTwoDigits (StringBuilder str, int num) {
+        str.append((char) ('0' + num / 10)).append((char) ('0' + num % 10));
+    }
+
+
+
+
+    /**
+     * Returns the version of the Utils program. Format
+     * is Utils MAJOR.MINOR.PATCH, following Sematic
+     * Versioning (https://semver.org/).
+     *
+     * Example:
+     * Utils 1.2.0
+     *
+     * @return the version of Utils as a String
+     */
+    public static String getVersion() {
+        return "Utils " + VERSION;
+    }
+
+
+
+
+    /**
+     * Initializes an int array to 0.
+     *
+     * @param arr     the array to initialize
+     */
+    public static void initArray (int[] arr) {
+        initArray(arr, 0);
+    }
+
+    /**
+     * Initializes an int array to a given value.
+     *
+     * @param arr     the array to initialize
+     * @param value   the value to initialize to
+     */
+    public static void initArray (int[] arr, int value) {
+
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = value;
+        }
+    }
+
+
+
+
+    /**
+     * Initializes a double array to 0.
+     *
+     * @param arr     the array to initialize
+     */
+    public static void initArray (double[] arr) {
+        initArray(arr, 0);
+    }
+
+    /**
+     * Initializes a double array to a given value.
+     *
+     * @param arr     the array to initialize
+     * @param value   the value to initialize to
+     */
+    public static void initArray (double[] arr, double value) {
+
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = value;
+        }
+    }
+
+
+
+
+    /**
+     * Initializes a float array to 0.
+     *
+     * @param arr     the array to initialize
+     */
+    public static void initArray (float[] arr) {
+        initArray(arr, 0);
+    }
+
+    /**
+     * Initializes a float array to a given value.
+     *
+     * @param arr     the array to initialize
+     * @param value   the value to initialize to
+     */
+    public static void initArray (float[] arr, float value) {
+
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = value;
+        }
+    }
+
+
+
+
+    /**
+     * Initializes a String array to an empty String.
+     *
+     * @param arr     the array to initialize
+     */
+    public static void initArray (String[] arr) {
+        initArray(arr, "");
+    }
+
+    /**
+     * Initializes a String array to a given value.
+     *
+     * @param arr     the array to initialize
+     * @param value   the value to initialize to
+     */
+    public static void initArray (String[] arr, String value) {
+
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = value;
+        }
+    }
+
+
+
+
+    /**
+     * Checks whether messages at a given level are printed.
+     * Use this to skip building a costly message by hand.
+     *
+     * @param level   the level to check
+     * @return true if messages at the level are printed
+     */
+    public static boolean isLogEnabled (LogLevel level) {
+        return level != LogLevel.OFF && level.compareTo(LogLevels.threshold) >= 0;
+    }
+
+    /**
+     * Checks whether messages at a given level are printed for
+     * a class, using the class's own level if it has one.
+     *
+     * @param source  the class printing the message
+     * @param level   the level to check
+     * @return true if messages at the level are printed
+     */
+    public static boolean isLogEnabled (Class<?> source, LogLevel level) {
+
+        LogLevel threshold = LogLevels.threshold;
+
+        if (LogLevels.hasClassLevels) {
+            threshold = LogLevels.byClass.getOrDefault(source, threshold);
+        }
+        return level != LogLevel.OFF && level.compareTo(threshold) >= 0;
+    }
+
+
+
+
+    /**
+     * Prints a menu with no title to the user. Prompts
+     * user to input number for their selection. Rejects
+     * non-numbers or numbers outside the selection
+     * range.
+     *
+     * Example:
+     * 1. Start Game
+     * 2. Settings
+     * 3. Quit
+     *
+     * Requires a String array containing the possible options.
+     *
+     * Example:
+     * String options = {
+     *     "Start Game",
+     *     "Settings",
+     *     "Quit"
+     * }
+     *
+     * @param options the String array containing the possible options
+     * @return the user's choice
+     */
+    public static int menu (String[] options) {
+        return menu("", options);
+    }
+
+    /**
+     * Prints a menu with a title to the user. Prompts
+     * user to input number for their selection. Rejects
+     * non-numbers or numbers outside the selection
+     * range.
+     *
+     * Example:
+     * BATTLESHIP
+     * 1. Start Game
+     * 2. Settings
+     * 3. Quit
+     *
+     * Requires a String array containing the possible options.
+     *
+     * Example:
+     * String options = {
+     *     "Start Game",
+     *     "Settings",
+     *     "Quit"
+     * }
+     *
+     * @param title   the title of the menu
+     * @param options the String array containing the possible options
+     * @return the user's choice
+     */
+    public static int menu (String title, String[] options) {
+
+        int choice = Prompt.menu(title, options).askChoice();
+
+        System.out.println();
+        return choice;
+    }
+
+
+
+
+    /**
+     * Converts a double into a string. Removes trailing
+     * zeros, if any.
+     *
+     * @param num   the number to convert
+     * @return the number as a string, no trailing zeros
+     */
+    public static String numToStringNoTrailingZeros (double num) {
+        return removeTrailingZeros(String.valueOf(num));
+    }
+
+    /**
+     * Converts a float into a string. Removes trailing
+     * zeros, if any.
+     *
+     * @param num   the number to convert
+     * @return the number as a string, no trailing zeros
+     */
+    public static String numToStringNoTrailingZeros (float num) {
+        return removeTrailingZeros(String.valueOf(num));
+    }
+
+    /**
+     * Removes the trailing zeros after a number's decimal point,
+     * and the point itself if nothing is left after it. Numbers
+     * with an exponent, such as 1.0E10, are left as they are.
+     * Does the same as replacing "\\.0*$|(\\.\\d*?)0+$" with "$1",
+     * without compiling a regex on every call.
+     *
+     * @param num   the number as a string
+     * @return the number as a string, no trailing zeros
+     */
+    private static String removeTrailingZeros (String num) {
+
+        int point = num.indexOf('.');
+
+        if (point < 0) {
+            return num;
+        }
+
+        for (int i = point + 1; i < num.length(); i++) {
+            if (num.charAt(i) < '0' || num.charAt(i) > '9') {
+                return num;
+            }
+        }
+
+        int end = num.length();
+
+        while (end > point + 1 && num.charAt(end - 1) == '0') {
+            end--;
+        }
+
+        return num.substring(0, end == point + 1 ? point : end);
+    }
+
+
+
+
+    /**
+     * Pauses the console. Prompts the user to press Enter
+     * to continue. Waits for user to press Enter.
+     */
+    public static void pause() {
+        pause("Press ENTER to continue . . . \n");
+    }
+
+    /**
+     * Pauses the console. Prints message to console.
+     * Waits for user to press Enter.
+     *
+     * @param message the message to prompt the user
+     */
+    public static void pause (String message) {
+        promptStr(message);
+    }
+
+
+
+
+    /**
+     * Prints an int array with no title.
+     *
+     * Example:
+     * Index     Value
+     * 0         1
+     * 1         2
+     * 2         3
+     *
+     * @param arr     the array to print
+     */
+    public static void printArray (int[] arr) {
+        printArray("", arr);
+    }
+
+    /**
+     * Prints an int array with a title.
+     *
+     * Example:
+     * [arrayInt]
+     * Index     Value
+     * 0         1
+     * 1         2
+     * 2         3
+     *
+     * @param title   the title to print
+     * @param arr     the array to print
+     */
+    public static void printArray (String title, int[] arr) {
+
+        if (arr.length < 0) {
+            return;
+        }
+
+        printMsg(title + "\n");
+
+        System.out.printf("%-10s%s\n", "Index", "Value");
+
+        for (int i = 0; i < arr.length; i++) {
+            System.out.printf("%-10d%d\n", i, arr[i]);
+        }
+
+        System.out.println();
+    }
+
+
+
+
+    /**
+     * Prints a double array with no title.
+     *
+     * Example:
+     * Index     Value
+     * 0         23231.1
+     * 1         17.56784
+     * 2         11.35782
+     *
+     * @param arr     the array to print
+     */
+    public static void printArray (double[] arr) {
+        printArray("", arr);
+    }
+
+    /**
+     * Prints a double array with a title.
+     *
+     * Example:
+     * [arrayDouble]
+     * Index     Value
+     * 0         23231.1
+     * 1         17.56784
+     * 2         11.35782
+     *
+     * @param title   the title to print.
+     * @param arr     the array to print
+     */
+    public static void printArray (String title, double[] arr) {
+
+        if (arr.length < 0) {
+            return;
+        }
+
+        printMsg(title + "\n");
+
+        System.out.printf("%-10s%s\n", "Index", "Value");
+
+        for (int i = 0; i < arr.length; i++) {
+            System.out.printf("%-10d%s\n", i, numToStringNoTrailingZeros(arr[i]));
+        }
+
+        System.out.println();
+    }
+
+
+
+
+    /**
+     * Prints a float array with no title.
+     *
+     * Example:
+     * Index     Value
+     * 0         1.152313
+     * 1         2.234034
+     * 2         3.504182
+     *
+     * @param arr     the array to print
+     */
+    public static void printArray (float[] arr) {
+        printArray("", arr);
+    }
+
+    /**
+     * Prints a float array with a title.
+     *
+     * Example:
+     * [arrayFloat]
+     * Index     Value
+     * 0         1.152313
+     * 1         2.234034
+     * 2         3.504182
+     *
+     * @param title   the title to print
+     * @param arr     the array to print
+     */
+    public static void printArray (String title, float[] arr) {
+
+        if (arr.length < 0) {
+            return;
+        }
+
+        printMsg(title + "\n");
+
+        System.out.printf("%-10s%s\n", "Index", "Value");
+
+        for (int i = 0; i < arr.length; i++) {
+            System.out.printf("%-10d%s\n", i, numToStringNoTrailingZeros(arr[i]));
+        }
+
+        System.out.println();
+    }
+
+
+
+
+    /**
+     * Prints a String array with no title.
+     *
+     * Example:
+     * Index     Value
+     * 0         This is a string
+     * 1         This is a second string
+     * 2         This is a third string
+     *
+     * @param arr     the array to print
+     */
+    public static void printArray (String[] arr) {
+        printArray("", arr);
+    }
+
+    /**
+     * Prints a String array with a title.
+     *
+     * Example:
+     * [arrayString]
+     * Index     Value
+     * 0         This is a string
+     * 1         This is a second string
+     * 2         This is a third string
+     *
+     * @param title   the title to print
+     * @param arr     the array to print
+     */
+    public static void printArray (String title, String[] arr) {
+
+        if (arr.length < 0) {
+            return;
+        }
+
+        printMsg(title + "\n");
+
+        System.out.printf("%-10s%s\n", "Index", "Value");
+
+        for (int i = 0; i < arr.length; i++) {
+            System.out.printf("%-10d%s\n", i, arr[i]);
+        }
+
+        System.out.println();
+    }
+
+
+
+
+    /**
+     * Prints lines stored as Dictionary ids with no title,
+     * such as those read by fileReadEncoded.
+     *
+     * Example:
+     * Index     Value
+     * 0         OK
+     * 1         OK
+     * 2         FAILED
+     *
+     * @param ids     the line ids to print
+     * @param dict    the Dictionary the ids belong to
+     */
+    public static void printArray (int[] ids, Dictionary dict) {
+        printArray("", ids, dict);
+    }
+
+    /**
+     * Prints lines stored as Dictionary ids with a title,
+     * such as those read by fileReadEncoded.
+     *
+     * Example:
+     * [statuses]
+     * Index     Value
+     * 0         OK
+     * 1         OK
+     * 2         FAILED
+     *
+     * @param title   the title to print
+     * @param ids     the line ids to print
+     * @param dict    the Dictionary the ids belong to
+     */
+    public static void printArray (String title, int[] ids, Dictionary dict) {
+        printArray(title, dict.decode(ids));
+    }
+
+
+
+
+    /**
+     * Prints credits. Includes author name and end time
+     * of program.
+     *
+     * Example:
+     * Programmed by Benson Yee
+     * End Time: 25-Nov-2020 22:37:18
+     *
+     * @param authorName the author's name
+     */
+    public static void printCredits (String authorName) {
+
+        System.out.printf("End Time: %s\n", getDateTime());
+        System.out.printf("Programmed by %s\n", authorName);
+        System.out.printf("Powered by " + getVersion() + "\n");
+    }
+
+
+
+
+    /**
+     * Prints a message, then a line break. If message
+     * is empty, does not print line break.
+     *
+     * @param message the message to print
+     */
+    public static void printMsg (String message) {
+
+        // Prints the message if not blank
+        if (!message.isEmpty() && !message.equals("\n")) {
+            System.out.print(message);
+        }
+    }
+
+    /**
+     * Prints a message at a given level, if that level is
+     * enabled. The message is only built, by calling the
+     * Supplier, when it will be printed.
+     *
+     * Example:
+     * Utils.printMsg(Utils.LogLevel.DEBUG, () -> "Loaded " + count + " rows\n");
+     *
+     * @param level   the message's level
+     * @param message supplies the message to print
+     */
+    public static void printMsg (LogLevel level, Supplier<String> message) {
+
+        if (isLogEnabled(level)) {
+            printMsg(message.get());
+        }
+    }
+
+    /**
+     * Prints a message at a given level for a class, if that
+     * level is enabled for the class. The message is only built,
+     * by calling the Supplier, when it will be printed.
+     *
+     * @param source  the class printing the message
+     * @param level   the message's level
+     * @param message supplies the message to print
+     */
+    public static void printMsg (Class<?> source, LogLevel level, Supplier<String> message) {
+
+        if (isLogEnabled(source, level)) {
+            printMsg(message.get());
+        }
+    }
+
+
+
+
+    /**
+     * Prints several arrays side by side as a table with a title,
+     * one array per column, after an Index column. Each column may
+     * be an int, double, float or String array, and the arrays may
+     * have different lengths. Every column is made wide enough for
+     * its longest value.
+     *
+     * Example:
+     * [scores]
+     * Index     Id        Name      Score
+     * 0         17        Alice     92.5
+     * 1         23        Bob       88
+     *
+     * Utils.printTable("[scores]", new String[] {"Id", "Name", "Score"}, new Object[] {ids, names, scores});
+     *
+     * The arrays are passed in an Object array rather than as
+     * varargs, as a single String array would otherwise be taken
+     * as the whole list of columns.
+     *
+     * @param title   the title to print
+     * @param headers the column headers, one per array
+     * @param columns the arrays to print
+     */
+    public static void printTable (String title, String[] headers, Object[] columns) {
+        printTable(title, Integer.MAX_VALUE, headers, columns);
+    }
+
+    /**
+     * Prints several arrays side by side as a table with a title,
+     * sizing the columns from only the first few rows. Rows past
+     * those are formatted and printed one at a time, so a table of
+     * millions of rows never has to be held in memory as text.
+     * A later value wider than its column pushes the rest of its
+     * row over by one space.
+     *
+     * @param title      the title to print
+     * @param sampleRows the number of rows to size the columns from
+     * @param headers    the column headers, one per array
+     * @param columns    the arrays to print
+     */
+    public static void printTable (String title, int sampleRows, String[] headers, Object[] columns) {
+
+        final int MIN_WIDTH = 10;
+        final int FLUSH_SIZE = 8192;
+
+        if (headers.length != columns.length) {
+            System.out.printf("ERR: Table has %d headers but %d columns.\n", headers.length, columns.length);
+            return;
+        }
+
+        int rows = 0;
+
+        for (Object column : columns) {
+
+            int length = columnLength(column);
+
+            if (length < 0) {
+                System.out.printf("ERR: Unable to print a column of type %s.\n", column == null ? "null" : column.getClass().getSimpleName());
+                return;
+            }
+            rows = Math.max(rows, length);
+        }
+
+        // Format the sample rows once, keeping them to print after sizing
+        int sample = Math.max(0, Math.min(rows, sampleRows));
+        String[][] cells = new String[sample][];
+        int[] widths = new int[columns.length + 1];
+
+        widths[0] = "Index".length();
+
+        for (int c = 0; c < columns.length; c++) {
+            widths[c + 1] = headers[c].length();
+        }
+
+        for (int r = 0; r < sample; r++) {
+
+            cells[r] = formatRow(r, columns);
+
+            for (int c = 0; c < cells[r].length; c++) {
+                widths[c] = Math.max(widths[c], cells[r][c].length());
+            }
+        }
+
+        for (int c = 0; c < widths.length; c++) {
+            widths[c] = Math.max(MIN_WIDTH, widths[c] + 2);
+        }
+
+        printMsg(title + "\n");
+
+        StringBuilder out = new StringBuilder(FLUSH_SIZE * 2);
+        String[] headerRow = new String[columns.length + 1];
+
+        headerRow[0] = "Index";
+        System.arraycopy(headers, 0, headerRow, 1, headers.length);
+        appendRow(out, headerRow, widths);
+
+        for (int r = 0; r < rows; r++) {
+
+            appendRow(out, r < sample ? cells[r] : formatRow(r, columns), widths);
+
+            if (r < sample) {
+                cells[r] = null;
+            }
+
+            if (out.length() >= FLUSH_SIZE) {
+                System.out.print(out);
+                out.setLength(0);
+            }
+        }
+
+        System.out.print(out);
+        System.out.println();
+    }
+
+    /**
+     * Returns the length of a table column, or -1 if it is not
+     * an int, double, float or String array.
+     *
+     * @param  column  the column
+     * @return the column's length
+     */
+    private static int columnLength (Object column) {
+
+        if (column instanceof int[]) {
+            return ((int[]) column).length;
+        }
+
+        if (column instanceof double[]) {
+            return ((double[]) column).length;
+        }
+
+        if (column instanceof float[]) {
+            return ((float[]) column).length;
+        }
+
+        if (column instanceof String[]) {
+            return ((String[]) column).length;
+        }
+        return -1;
+    }
+
+    /**
+     * Formats one row of a table, starting with its index.
+     * Numbers are formatted the same way as printArray, and
+     * columns shorter than the table are left blank.
+     *
+     * @param  row     the row to format
+     * @param  columns the table's columns
+     * @return the row's cells
+     */
+    private static String[] formatRow (int row, Object[] columns) {
+
+        String[] cells = new String[columns.length + 1];
+        cells[0] = Integer.toString(row);
+
+        for (int c = 0; c < columns.length; c++) {
+
+            Object column = columns[c];
+            String cell;
+
+            if (row >= columnLength(column)) {
+                cell = "";
+            }
+
+            else if (column instanceof int[]) {
+                cell = Integer.toString(((int[]) column)[row]);
+            }
+
+            else if (column instanceof double[]) {
+                cell = numToStringNoTrailingZeros(((double[]) column)[row]);
+            }
+
+            else if (column instanceof float[]) {
+                cell = numToStringNoTrailingZeros(((float[]) column)[row]);
+            }
+
+            else {
+                cell = String.valueOf(((String[]) column)[row]);
+            }
+
+            cells[c + 1] = cell;
+        }
+        return cells;
+    }
+
+    /**
+     * Appends one row of a table, padding each cell but the last
+     * to its column's width.
+     *
+     * @param out     the buffer to append to
+     * @param cells   the row's cells
+     * @param widths  the columns' widths
+     */
+    private static void appendRow (StringBuilder out, String[] cells, int[] widths) {
+
+        int last = cells.length - 1;
+
+        for (int c = 0; c < last; c++) {
+
+            out.append(cells[c]);
+
+            for (int pad = Math.max(1, widths[c] - cells[c].length()); pad > 0; pad--) {
+                out.append(' ');
+            }
+        }
+
+        out.append(cells[last]).append('\n');
+    }
+
+
+
+
+    /**
+     * Prints the program name, the author name, and the
+     * start time of the program.
+     *
+     * Example:
+     * Template v1.0.0
+     * Programmed by Benson Yee
+     * Start Time: 25-Nov-2020 22:36:53
+     *
+     * @param programName the program's name
+     * @param authorName  the author's name
+     */
+    public static void printTitle (String programName, String authorName) {
+
+        // Plain prints rather than printf, since this is usually the first
+        // output of a program and the Formatter is slow to load
+        PrintStream out = System.out;
+
+        out.print('\n');
+        out.print(programName);
+        out.print("\nProgrammed by ");
+        out.print(authorName);
+        out.print("\nStart Time: ");
+        out.print(getDateTime());
+        out.print("\n\n");
+    }
+
+
+
+
+    /**
+     * Prints an int variable's name and value. Useful
+     * for debugging or checking a variable's value in
+     * a loop.
+     *
+     * Example:
+     * i: 1
+     * i: 2
+     * i: 3
+     *
+     * @param varName the variable's name
+     * @param var     the variable
+     */
+    public static void printVar (String varName, int var) {
+        System.out.printf("%s: %d\n", varName, var);
+    }
+
+    /**
+     * Prints a double variable's name and value. Useful
+     * for debugging or checking a variable's value
+     * in a loop.
+     *
+     * Example:
+     * numD: 2.5
+     * numD: 2.37
      * numD: 1.04
      *
-     * @param varName the variable's name
-     * @param var     the variable
+     * @param varName the variable's name
+     * @param var     the variable
+     */
+    public static void printVar (String varName, double var) {
+        System.out.printf("%s: %s\n", varName, numToStringNoTrailingZeros(var));
+    }
+
+    /**
+     * Prints a float variable's name and value. Useful
+     * for debugging or checking a variable's value
+     * in a loop.
+     *
+     * Example:
+     * numF: 1024
+     * numF: 2048
+     * numF: 4096
+     *
+     * @param varName the variable's name
+     * @param var     the variable
+     */
+    public static void printVar (String varName, float var) {
+        System.out.printf("%s: %s\n", varName, numToStringNoTrailingZeros(var));
+    }
+
+    /**
+     * Prints a String variable's name and value. Useful
+     * for debugging or checking a variable's value in a
+     * loop.
+     *
+     * Example:
+     * str1: this is a string
+     * str1: THIS IS A STRING
+     * str1: THIS
+     *
+     * @param varName the variable's name
+     * @param var     the variable
+     */
+    public static void printVar (String varName, String var) {
+        System.out.printf("%s: %s\n", varName, var);
+    }
+
+    /**
+     * Prints an int variable's name and value at a given level,
+     * if that level is enabled. Nothing is formatted or boxed
+     * when the level is off.
+     *
+     * @param level   the message's level
+     * @param varName the variable's name
+     * @param var     the variable
+     */
+    public static void printVar (LogLevel level, String varName, int var) {
+
+        if (isLogEnabled(level)) {
+            printVar(varName, var);
+        }
+    }
+
+    /**
+     * Prints a double variable's name and value at a given level,
+     * if that level is enabled. Nothing is formatted or boxed
+     * when the level is off.
+     *
+     * @param level   the message's level
+     * @param varName the variable's name
+     * @param var     the variable
+     */
+    public static void printVar (LogLevel level, String varName, double var) {
+
+        if (isLogEnabled(level)) {
+            printVar(varName, var);
+        }
+    }
+
+    /**
+     * Prints a float variable's name and value at a given level,
+     * if that level is enabled. Nothing is formatted or boxed
+     * when the level is off.
+     *
+     * @param level   the message's level
+     * @param varName the variable's name
+     * @param var     the variable
+     */
+    public static void printVar (LogLevel level, String varName, float var) {
+
+        if (isLogEnabled(level)) {
+            printVar(varName, var);
+        }
+    }
+
+    /**
+     * Prints a String variable's name and value at a given level,
+     * if that level is enabled. The value is only built, by calling
+     * the Supplier, when it will be printed.
+     *
+     * @param level   the message's level
+     * @param varName the variable's name
+     * @param var     supplies the variable
+     */
+    public static void printVar (LogLevel level, String varName, Supplier<String> var) {
+
+        if (isLogEnabled(level)) {
+            printVar(varName, var.get());
+        }
+    }
+
+    /**
+     * Prints an int variable's name and value at a given level
+     * for a class, if that level is enabled for the class. Nothing
+     * is formatted or boxed when the level is off.
+     *
+     * @param source  the class printing the variable
+     * @param level   the message's level
+     * @param varName the variable's name
+     * @param var     the variable
+     */
+    public static void printVar (Class<?> source, LogLevel level, String varName, int var) {
+
+        if (isLogEnabled(source, level)) {
+            printVar(varName, var);
+        }
+    }
+
+    /**
+     * Prints a double variable's name and value at a given level
+     * for a class, if that level is enabled for the class. Nothing
+     * is formatted or boxed when the level is off.
+     *
+     * @param source  the class printing the variable
+     * @param level   the message's level
+     * @param varName the variable's name
+     * @param var     the variable
+     */
+    public static void printVar (Class<?> source, LogLevel level, String varName, double var) {
+
+        if (isLogEnabled(source, level)) {
+            printVar(varName, var);
+        }
+    }
+
+    /**
+     * Prints a float variable's name and value at a given level
+     * for a class, if that level is enabled for the class. Nothing
+     * is formatted or boxed when the level is off.
+     *
+     * @param source  the class printing the variable
+     * @param level   the message's level
+     * @param varName the variable's name
+     * @param var     the variable
+     */
+    public static void printVar (Class<?> source, LogLevel level, String varName, float var) {
+
+        if (isLogEnabled(source, level)) {
+            printVar(varName, var);
+        }
+    }
+
+    /**
+     * Prints a String variable's name and value at a given level
+     * for a class, if that level is enabled for the class. The
+     * value is only built, by calling the Supplier, when it will
+     * be printed.
+     *
+     * @param source  the class printing the variable
+     * @param level   the message's level
+     * @param varName the variable's name
+     * @param var     supplies the variable
+     */
+    public static void printVar (Class<?> source, LogLevel level, String varName, Supplier<String> var) {
+
+        if (isLogEnabled(source, level)) {
+            printVar(varName, var.get());
+        }
+    }
+
+
+
+
+    /**
+     * Prompts the user to input a double with no message.
+     * Rejects any non-numeric values.
+     *
+     * @return the double
+     */
+    public static double promptNum() {
+        return promptNum("");
+    }
+
+    /**
+     * Prompts the user to input a double with a message.
+     * Rejects any non-numeric values.
+     *
+     * @param message the message to prompt the user
+     * @return the double
+     */
+    public static double promptNum (String message) {
+        return Prompt.num(message).askNum();
+    }
+
+
+
+
+    /**
+     * Prompts the user to input a double with a message.
+     * Rejects any non-numeric values or numbers less than
+     * minimum possible input.
+     *
+     * @param min     the minimum possible input
+     * @return the double
+     */
+    public static double promptNumMin (double min) {
+        return promptNumMin(min, "");
+    }
+
+    /**
+     * Prompts the user to input a double with a message.
+     * Rejects any non-numeric values or numbers less than
+     * minimum possible input.
+     *
+     * @param min     the minimum possible input
+     * @param message the message to prompt the user
+     * @return the double
+     */
+    public static double promptNumMin (double min, String message) {
+        return Prompt.numMin(min, message).askNum();
+    }
+
+
+
+
+    /**
+     * Prompts the user to input a double with a message.
+     * Rejects any non-numeric values or numbers greater than
+     * maximum possible input.
+     *
+     * @param max     the minimum possible input
+     * @return the double
+     */
+    public static double promptNumMax (double max) {
+        return promptNumMax(max, "");
+    }
+
+    /**
+     * Prompts the user to input a double with a message.
+     * Rejects any non-numeric values or numbers greater than
+     * maximum possible input.
+     *
+     * @param max     the minimum possible input
+     * @param message the message to prompt the user
+     * @return the double
+     */
+    public static double promptNumMax (double max, String message) {
+        return Prompt.numMax(max, message).askNum();
+    }
+
+
+
+
+    /**
+     * Prompts the user to input a double with a message.
+     * Rejects any non-numeric values or non-positive
+     * numbers.
+     *
+     * @return the double
+     */
+    public static double promptNumPos() {
+        return promptNumPos("");
+    }
+
+    /**
+     * Prompts the user to input a double with a message.
+     * Rejects any non-numeric values or non-positive
+     * numbers.
+     *
+     * @param message the message to prompt the user
+     * @return the double
+     */
+    public static double promptNumPos (String message) {
+        return Prompt.numPos(message).askNum();
+    }
+
+
+
+
+    /**
+     * Prompts the user to input a double with a message.
+     * Rejects any non-numeric values or non-negative
+     * numbers.
+     *
+     * @return the double
+     */
+    public static double promptNumNeg() {
+        return promptNumNeg("");
+    }
+
+    /**
+     * Prompts the user to input a double with a message.
+     * Rejects any non-numeric values or non-negative
+     * numbers.
+     *
+     * @param message the message to prompt the user
+     * @return the double
+     */
+    public static double promptNumNeg (String message) {
+        return Prompt.numNeg(message).askNum();
+    }
+
+
+
+
+    /**
+     * Prompts the user to input a double with a message
+     * within a specified range.
+     *
+     * @param min     the min, inclusive
+     * @param max     the max, inclusive
+     * @return the int
+     */
+    public static double promptNumRange (double min, double max) {
+        return promptNumRange(min, max, "");
+    }
+
+    /**
+     * Prompts the user to input a double with a message
+     * within a specified range.
+     *
+     * @param min     the min, inclusive
+     * @param max     the max, inclusive
+     * @param message the message to prompt the user
+     * @return the int
+     */
+    public static double promptNumRange (double min, double max, String message) {
+        return Prompt.numRange(min, max, message).askNum();
+    }
+
+
+
+
+    /**
+     * Prompts the user to input a String with no message.
+     *
+     * @return the string
+     */
+    public static String promptStr() {
+        return promptStr("");
+    }
+
+    /**
+     * Prompts the user to input a string with a message.
+     *
+     * @param message the message to print
+     * @return the string
+     */
+    public static String promptStr (String message) {
+
+        printMsg(message);
+        return Prompt.readLine();
+    }
+
+
+
+    /**
+     * Prompts the user to input Y or N with no message.
+     * Ignores case. Returns true if Y or false if N.
+     *
+     * @return true if Y, false otherwise
+     */
+    public static boolean promptYN() {
+        return promptYN ("");
+    }
+
+    /**
+     * Prompts the user to input Y or N with a message.
+     * Ignores case. Returns true if Y or false if N.
+     *
+     * @param message the message to prompt the user
+     * @return true if Y, false otherwise
+     */
+    public static boolean promptYN (String message) {
+        return Prompt.yn(message).askYN();
+    }
+
+
+
+
+    /**
+     * Searches a sorted int array for a value. Sort the array
+     * with sortArray first. The loop has no data-dependent
+     * branches, so the CPU does not mispredict on each step.
+     *
+     * @param arr     the sorted array to search
+     * @param key     the value to search for
+     * @return the index of the value, or -1 if it is not found
+     */
+    public static int searchArray (int[] arr, int key) {
+
+        if (arr.length == 0) {
+            return -1;
+        }
+
+        int base = 0;
+        int n = arr.length;
+
+        // Halve the range each step, keeping the first value >= key inside it
+        while (n > 1) {
+            int half = n >>> 1;
+            base = arr[base + half] < key ? base + half : base;
+            n -= half;
+        }
+
+        if (arr[base] < key) {
+            base++;
+        }
+
+        return base < arr.length && arr[base] == key ? base : -1;
+    }
+
+    /**
+     * Searches a sorted double array for a value. Sort the array
+     * with sortArray first. The loop has no data-dependent
+     * branches, so the CPU does not mispredict on each step.
+     *
+     * @param arr     the sorted array to search
+     * @param key     the value to search for
+     * @return the index of the value, or -1 if it is not found
+     */
+    public static int searchArray (double[] arr, double key) {
+
+        if (arr.length == 0) {
+            return -1;
+        }
+
+        int base = 0;
+        int n = arr.length;
+
+        // Halve the range each step, keeping the first value >= key inside it
+        while (n > 1) {
+            int half = n >>> 1;
+            base = Double.compare(arr[base + half], key) < 0 ? base + half : base;
+            n -= half;
+        }
+
+        if (Double.compare(arr[base], key) < 0) {
+            base++;
+        }
+
+        return base < arr.length && Double.compare(arr[base], key) == 0 ? base : -1;
+    }
+
+    /**
+     * Searches a sorted float array for a value. Sort the array
+     * with sortArray first. The loop has no data-dependent
+     * branches, so the CPU does not mispredict on each step.
+     *
+     * @param arr     the sorted array to search
+     * @param key     the value to search for
+     * @return the index of the value, or -1 if it is not found
+     */
+    public static int searchArray (float[] arr, float key) {
+
+        if (arr.length == 0) {
+            return -1;
+        }
+
+        int base = 0;
+        int n = arr.length;
+
+        // Halve the range each step, keeping the first value >= key inside it
+        while (n > 1) {
+            int half = n >>> 1;
+            base = Float.compare(arr[base + half], key) < 0 ? base + half : base;
+            n -= half;
+        }
+
+        if (Float.compare(arr[base], key) < 0) {
+            base++;
+        }
+
+        return base < arr.length && Float.compare(arr[base], key) == 0 ? base : -1;
+    }
+
+    /**
+     * Searches a sorted String array for a value. Sort the array
+     * with sortArray first. The loop has no data-dependent
+     * branches, so the CPU does not mispredict on each step.
+     *
+     * @param arr     the sorted array to search
+     * @param key     the value to search for
+     * @return the index of the value, or -1 if it is not found
+     */
+    public static int searchArray (String[] arr, String key) {
+
+        if (arr.length == 0) {
+            return -1;
+        }
+
+        int base = 0;
+        int n = arr.length;
+
+        // Halve the range each step, keeping the first value >= key inside it
+        while (n > 1) {
+            int half = n >>> 1;
+            base = arr[base + half].compareTo(key) < 0 ? base + half : base;
+            n -= half;
+        }
+
+        if (arr[base].compareTo(key) < 0) {
+            base++;
+        }
+
+        return base < arr.length && arr[base].equals(key) ? base : -1;
+    }
+
+
+
+
+    /**
+     * Returns the k largest values of an int array, largest
+     * first. The array does not need to be sorted and is not
+     * changed. Only k values are held at a time, so this is
+     * much cheaper than sorting when k is small.
+     *
+     * @param arr     the array to select from
+     * @param k       the number of values to return
+     * @return the k largest values, largest first
+     */
+    public static int[] selectTop (int[] arr, int k) {
+
+        int size = Math.max(0, Math.min(k, arr.length));
+        int[] heap = Arrays.copyOf(arr, size);
+
+        if (size == 0) {
+            return heap;
+        }
+
+        // Keep the k largest values seen so far in a min-heap
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, i, size);
+        }
+
+        for (int i = size; i < arr.length; i++) {
+            if (arr[i] > heap[0]) {
+                heap[0] = arr[i];
+                siftDown(heap, 0, size);
+            }
+        }
+
+        // Move the smallest to the back, leaving the largest in front
+        for (int end = size - 1; end > 0; end--) {
+            int min = heap[0];
+            heap[0] = heap[end];
+            heap[end] = min;
+            siftDown(heap, 0, end);
+        }
+        return heap;
+    }
+
+    /**
+     * Returns the k largest values of a double array, largest
+     * first. The array does not need to be sorted and is not
+     * changed. Only k values are held at a time, so this is
+     * much cheaper than sorting when k is small.
+     *
+     * @param arr     the array to select from
+     * @param k       the number of values to return
+     * @return the k largest values, largest first
+     */
+    public static double[] selectTop (double[] arr, int k) {
+
+        int size = Math.max(0, Math.min(k, arr.length));
+        double[] heap = Arrays.copyOf(arr, size);
+
+        if (size == 0) {
+            return heap;
+        }
+
+        // Keep the k largest values seen so far in a min-heap
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, i, size);
+        }
+
+        for (int i = size; i < arr.length; i++) {
+            if (Double.compare(arr[i], heap[0]) > 0) {
+                heap[0] = arr[i];
+                siftDown(heap, 0, size);
+            }
+        }
+
+        // Move the smallest to the back, leaving the largest in front
+        for (int end = size - 1; end > 0; end--) {
+            double min = heap[0];
+            heap[0] = heap[end];
+            heap[end] = min;
+            siftDown(heap, 0, end);
+        }
+        return heap;
+    }
+
+    /**
+     * Returns the k largest values of a float array, largest
+     * first. The array does not need to be sorted and is not
+     * changed. Only k values are held at a time, so this is
+     * much cheaper than sorting when k is small.
+     *
+     * @param arr     the array to select from
+     * @param k       the number of values to return
+     * @return the k largest values, largest first
+     */
+    public static float[] selectTop (float[] arr, int k) {
+
+        int size = Math.max(0, Math.min(k, arr.length));
+        float[] heap = Arrays.copyOf(arr, size);
+
+        if (size == 0) {
+            return heap;
+        }
+
+        // Keep the k largest values seen so far in a min-heap
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, i, size);
+        }
+
+        for (int i = size; i < arr.length; i++) {
+            if (Float.compare(arr[i], heap[0]) > 0) {
+                heap[0] = arr[i];
+                siftDown(heap, 0, size);
+            }
+        }
+
+        // Move the smallest to the back, leaving the largest in front
+        for (int end = size - 1; end > 0; end--) {
+            float min = heap[0];
+            heap[0] = heap[end];
+            heap[end] = min;
+            siftDown(heap, 0, end);
+        }
+        return heap;
+    }
+
+    /**
+     * Returns the k largest values of a String array, largest
+     * first. The array does not need to be sorted and is not
+     * changed. Only k values are held at a time, so this is
+     * much cheaper than sorting when k is small.
+     *
+     * @param arr     the array to select from
+     * @param k       the number of values to return
+     * @return the k largest values, largest first
+     */
+    public static String[] selectTop (String[] arr, int k) {
+
+        int size = Math.max(0, Math.min(k, arr.length));
+        String[] heap = Arrays.copyOf(arr, size);
+
+        if (size == 0) {
+            return heap;
+        }
+
+        // Keep the k largest values seen so far in a min-heap
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, i, size);
+        }
+
+        for (int i = size; i < arr.length; i++) {
+            if (arr[i].compareTo(heap[0]) > 0) {
+                heap[0] = arr[i];
+                siftDown(heap, 0, size);
+            }
+        }
+
+        // Move the smallest to the back, leaving the largest in front
+        for (int end = size - 1; end > 0; end--) {
+            String min = heap[0];
+            heap[0] = heap[end];
+            heap[end] = min;
+            siftDown(heap, 0, end);
+        }
+        return heap;
+    }
+
+    /**
+     * Moves a value down a min-heap until its children are
+     * no smaller than it.
+     *
+     * @param heap    the heap
+     * @param i       the index of the value to move
+     * @param size    the number of values in the heap
+     */
+    private static void siftDown (int[] heap, int i, int size) {
+
+        int value = heap[i];
+
+        while (true) {
+            int child = 2 * i + 1;
+
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+
+            if (!(heap[child] < value)) {
+                break;
+            }
+
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+
+    /**
+     * Moves a value down a min-heap until its children are
+     * no smaller than it.
+     *
+     * @param heap    the heap
+     * @param i       the index of the value to move
+     * @param size    the number of values in the heap
+     */
+    private static void siftDown (double[] heap, int i, int size) {
+
+        double value = heap[i];
+
+        while (true) {
+            int child = 2 * i + 1;
+
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size && Double.compare(heap[child + 1], heap[child]) < 0) {
+                child++;
+            }
+
+            if (!(Double.compare(heap[child], value) < 0)) {
+                break;
+            }
+
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+
+    /**
+     * Moves a value down a min-heap until its children are
+     * no smaller than it.
+     *
+     * @param heap    the heap
+     * @param i       the index of the value to move
+     * @param size    the number of values in the heap
+     */
+    private static void siftDown (float[] heap, int i, int size) {
+
+        float value = heap[i];
+
+        while (true) {
+            int child = 2 * i + 1;
+
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size && Float.compare(heap[child + 1], heap[child]) < 0) {
+                child++;
+            }
+
+            if (!(Float.compare(heap[child], value) < 0)) {
+                break;
+            }
+
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+
+    /**
+     * Moves a value down a min-heap until its children are
+     * no smaller than it.
+     *
+     * @param heap    the heap
+     * @param i       the index of the value to move
+     * @param size    the number of values in the heap
+     */
+    private static void siftDown (String[] heap, int i, int size) {
+
+        String value = heap[i];
+
+        while (true) {
+            int child = 2 * i + 1;
+
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size && heap[child + 1].compareTo(heap[child]) < 0) {
+                child++;
+            }
+
+            if (!(heap[child].compareTo(value) < 0)) {
+                break;
+            }
+
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+
+
+
+
+    /**
+     * Sets the lowest level of message that is printed by the
+     * leveled printMsg and printVar. Defaults to INFO. Use OFF to
+     * print nothing.
+     *
+     * @param level   the lowest level to print
+     */
+    public static void setLogLevel (LogLevel level) {
+        LogLevels.threshold = level;
+    }
+
+    /**
+     * Sets the lowest level of message that is printed for one
+     * class, overriding the global level. Pass null to go back to
+     * the global level.
+     *
+     * @param source  the class the level applies to
+     * @param level   the lowest level to print, or null
+     */
+    public static void setLogLevel (Class<?> source, LogLevel level) {
+
+        // Change the map and the flag together, so the flag matches the map
+        synchronized (LogLevels.byClass) {
+
+            if (level == null) {
+                LogLevels.byClass.remove(source);
+            }
+
+            else {
+                LogLevels.byClass.put(source, level);
+            }
+
+            LogLevels.hasClassLevels = !LogLevels.byClass.isEmpty();
+        }
+    }
+
+
+
+
+    /**
+     * Sorts an int array in ascending order. Large arrays are
+     * sorted with a parallel radix sort, which never compares two
+     * values and so runs in linear time; small arrays are sorted
+     * with Arrays.sort.
+     *
+     * @param arr     the array to sort
+     */
+    public static void sortArray (int[] arr) {
+
+        if (arr.length < RADIX_SORT_THRESHOLD) {
+            Arrays.sort(arr);
+            return;
+        }
+        radixSort(arr);
+    }
+
+    /**
+     * Sorts a double array in ascending order, in the same order
+     * as Arrays.sort: -0.0 before 0.0, and NaN last. Large arrays
+     * are sorted with a parallel radix sort on the bits of each
+     * value; small arrays are sorted with Arrays.sort.
+     *
+     * @param arr     the array to sort
+     */
+    public static void sortArray (double[] arr) {
+
+        if (arr.length < RADIX_SORT_THRESHOLD) {
+            Arrays.sort(arr);
+            return;
+        }
+        radixSort(arr);
+    }
+
+    /**
+     * Sorts a float array in ascending order, in the same order
+     * as Arrays.sort: -0.0 before 0.0, and NaN last. Large arrays
+     * are sorted with a parallel radix sort on the bits of each
+     * value; small arrays are sorted with Arrays.sort.
+     *
+     * @param arr     the array to sort
+     */
+    public static void sortArray (float[] arr) {
+
+        if (arr.length < RADIX_SORT_THRESHOLD) {
+            Arrays.sort(arr);
+            return;
+        }
+        radixSort(arr);
+    }
+
+    /**
+     * Sorts a String array in ascending order. Uses
+     * Arrays.parallelSort, a merge sort that splits large
+     * arrays across all cores.
+     *
+     * @param arr     the array to sort
+     */
+    public static void sortArray (String[] arr) {
+        Arrays.parallelSort(arr);
+    }
+
+    /**
+     * Sorts an int array with a parallel LSD radix sort, one byte per
+     * pass. Each pass counts the digits of every chunk in
+     * parallel, works out where each chunk's values go, then
+     * moves them in parallel. Passes where every value has the
+     * same digit are skipped.
+     *
+     * @param arr     the array to sort
+     */
+    private static void radixSort (int[] arr) {
+
+        int n = arr.length;
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), n / RADIX_SORT_THRESHOLD));
+        int[][] counts = new int[chunks][256];
+        int[] src = arr;
+        int[] dst = new int[n];
+
+        for (int shift = 0; shift < 32; shift += 8) {
+
+            final int s = shift;
+            final int[] from = src;
+            final int[] to = dst;
+
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+
+                int[] count = counts[c];
+                Arrays.fill(count, 0);
+
+                for (int i = (int) ((long) n * c / chunks), end = (int) ((long) n * (c + 1) / chunks); i < end; i++) {
+                    count[((from[i] ^ Integer.MIN_VALUE) >>> s) & 0xff]++;
+                }
+            });
+
+            // Turn the counts into each chunk's starting index for each digit
+            int sum = 0;
+            boolean oneDigit = false;
+
+            for (int d = 0; d < 256; d++) {
+
+                int start = sum;
+
+                for (int c = 0; c < chunks; c++) {
+                    int count = counts[c][d];
+                    counts[c][d] = sum;
+                    sum += count;
+                }
+
+                oneDigit |= sum - start == n;
+            }
+
+            if (oneDigit) {
+                continue;
+            }
+
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+
+                int[] next = counts[c];
+
+                for (int i = (int) ((long) n * c / chunks), end = (int) ((long) n * (c + 1) / chunks); i < end; i++) {
+                    int value = from[i];
+                    to[next[((value ^ Integer.MIN_VALUE) >>> s) & 0xff]++] = value;
+                }
+            });
+
+            src = to;
+            dst = from;
+        }
+
+        if (src != arr) {
+            System.arraycopy(src, 0, arr, 0, n);
+        }
+    }
+
+    /**
+     * Sorts a double array with a parallel LSD radix sort, one byte per
+     * pass. Each pass counts the digits of every chunk in
+     * parallel, works out where each chunk's values go, then
+     * moves them in parallel. Passes where every value has the
+     * same digit are skipped.
+     *
+     * @param arr     the array to sort
+     */
+    private static void radixSort (double[] arr) {
+
+        int n = arr.length;
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), n / RADIX_SORT_THRESHOLD));
+        int[][] counts = new int[chunks][256];
+        double[] src = arr;
+        double[] dst = new double[n];
+
+        for (int shift = 0; shift < 64; shift += 8) {
+
+            final int s = shift;
+            final double[] from = src;
+            final double[] to = dst;
+
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+
+                int[] count = counts[c];
+                Arrays.fill(count, 0);
+
+                for (int i = (int) ((long) n * c / chunks), end = (int) ((long) n * (c + 1) / chunks); i < end; i++) {
+                    count[(int) (sortKey(from[i]) >>> s) & 0xff]++;
+                }
+            });
+
+            // Turn the counts into each chunk's starting index for each digit
+            int sum = 0;
+            boolean oneDigit = false;
+
+            for (int d = 0; d < 256; d++) {
+
+                int start = sum;
+
+                for (int c = 0; c < chunks; c++) {
+                    int count = counts[c][d];
+                    counts[c][d] = sum;
+                    sum += count;
+                }
+
+                oneDigit |= sum - start == n;
+            }
+
+            if (oneDigit) {
+                continue;
+            }
+
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+
+                int[] next = counts[c];
+
+                for (int i = (int) ((long) n * c / chunks), end = (int) ((long) n * (c + 1) / chunks); i < end; i++) {
+                    double value = from[i];
+                    to[next[(int) (sortKey(value) >>> s) & 0xff]++] = value;
+                }
+            });
+
+            src = to;
+            dst = from;
+        }
+
+        if (src != arr) {
+            System.arraycopy(src, 0, arr, 0, n);
+        }
+    }
+
+    /**
+     * Sorts a float array with a parallel LSD radix sort, one byte per
+     * pass. Each pass counts the digits of every chunk in
+     * parallel, works out where each chunk's values go, then
+     * moves them in parallel. Passes where every value has the
+     * same digit are skipped.
+     *
+     * @param arr     the array to sort
+     */
+    private static void radixSort (float[] arr) {
+
+        int n = arr.length;
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), n / RADIX_SORT_THRESHOLD));
+        int[][] counts = new int[chunks][256];
+        float[] src = arr;
+        float[] dst = new float[n];
+
+        for (int shift = 0; shift < 32; shift += 8) {
+
+            final int s = shift;
+            final float[] from = src;
+            final float[] to = dst;
+
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+
+                int[] count = counts[c];
+                Arrays.fill(count, 0);
+
+                for (int i = (int) ((long) n * c / chunks), end = (int) ((long) n * (c + 1) / chunks); i < end; i++) {
+                    count[(sortKey(from[i]) >>> s) & 0xff]++;
+                }
+            });
+
+            // Turn the counts into each chunk's starting index for each digit
+            int sum = 0;
+            boolean oneDigit = false;
+
+            for (int d = 0; d < 256; d++) {
+
+                int start = sum;
+
+                for (int c = 0; c < chunks; c++) {
+                    int count = counts[c][d];
+                    counts[c][d] = sum;
+                    sum += count;
+                }
+
+                oneDigit |= sum - start == n;
+            }
+
+            if (oneDigit) {
+                continue;
+            }
+
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+
+                int[] next = counts[c];
+
+                for (int i = (int) ((long) n * c / chunks), end = (int) ((long) n * (c + 1) / chunks); i < end; i++) {
+                    float value = from[i];
+                    to[next[(sortKey(value) >>> s) & 0xff]++] = value;
+                }
+            });
+
+            src = to;
+            dst = from;
+        }
+
+        if (src != arr) {
+            System.arraycopy(src, 0, arr, 0, n);
+        }
+    }
+
+    /**
+     * Returns a double's bits rearranged so that comparing them
+     * as unsigned longs gives the same order as Double.compare.
+     * Positive values only need their sign bit set; negative
+     * values have every bit flipped so that larger magnitudes
+     * sort first.
+     *
+     * @param num     the number
+     * @return the sort key
+     */
+    private static long sortKey (double num) {
+
+        long bits = Double.doubleToLongBits(num);
+        return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns a float's bits rearranged so that comparing them
+     * as unsigned ints gives the same order as Float.compare.
+     *
+     * @param num     the number
+     * @return the sort key
+     */
+    private static int sortKey (float num) {
+
+        int bits = Float.floatToIntBits(num);
+        return bits ^ ((bits >> 31) | Integer.MIN_VALUE);
+    }
+
+
+
+
+    /**
+     * Reads lines from a stream, much like a BufferedReader.
+     * Lines end with '\n', '\r' or "\r\n".
+     *
+     * For US-ASCII, ISO-8859-1 and UTF-8 a line break is always a
+     * single '\n' or '\r' byte, so lines are found by scanning the
+     * raw bytes and each line is handed to the String constructor
+     * in one piece. This skips the Reader and its char buffer, and
+     * lets the JDK copy ASCII and Latin-1 bytes directly into a
+     * compact String. Other charsets fall back to a BufferedReader.
+     */
+    private static final class LineReader implements Closeable {
+
+        static final int BUFFER_SIZE = 64 * 1024;
+
+        private final InputStream in;
+        private final Charset charset;
+        private final BufferedReader reader;
+
+        private byte[] buf;
+        private int pos;
+        private int limit;
+        private boolean skipLF;
+
+        LineReader (InputStream in, Charset charset) {
+            this(in, charset, new byte[BUFFER_SIZE], null);
+        }
+
+        /**
+         * Makes a LineReader that splits lines in a given buffer, and
+         * decodes other charsets with a given decoder. The buffer is
+         * copied, not changed, if a line does not fit in it.
+         *
+         * @param in      the stream to read
+         * @param charset the charset the stream is encoded with
+         * @param buf     the buffer, at least BUFFER_SIZE long
+         * @param decoder the decoder for charset, or null to make one
+         */
+        LineReader (InputStream in, Charset charset, byte[] buf, CharsetDecoder decoder) {
+
+            this.in = in;
+            this.charset = charset;
+
+            if (charset.equals(StandardCharsets.US_ASCII)
+                    || charset.equals(StandardCharsets.ISO_8859_1)
+                    || charset.equals(StandardCharsets.UTF_8)) {
+                this.reader = null;
+                this.buf = buf;
+            }
+
+            else if (decoder != null) {
+                this.reader = new BufferedReader(new InputStreamReader(in, decoder), BUFFER_SIZE);
+            }
+
+            else {
+                this.reader = new BufferedReader(new InputStreamReader(in, charset), BUFFER_SIZE);
+            }
+        }
+
+        /**
+         * Reads the next line, without its line break.
+         *
+         * @return the line, or null at the end of the stream
+         * @throws IOException if unable to read from the stream
+         */
+        String readLine() throws IOException {
+
+            if (reader != null) {
+                return reader.readLine();
+            }
+
+            // Finish a "\r\n" that was split across two reads
+            if (skipLF) {
+                skipLF = false;
+
+                if (pos == limit && fill() < 0) {
+                    return null;
+                }
+
+                if (buf[pos] == '\n') {
+                    pos++;
+                }
+            }
+
+            int scan = pos;
+
+            while (true) {
+
+                for (; scan < limit; scan++) {
+
+                    byte b = buf[scan];
+
+                    if (b == '\n' || b == '\r') {
+                        String line = new String(buf, pos, scan - pos, charset);
+                        pos = scan + 1;
+
+                        if (b == '\r') {
+                            if (pos < limit) {
+                                if (buf[pos] == '\n') {
+                                    pos++;
+                                }
+                            }
+
+                            else {
+                                skipLF = true;
+                            }
+                        }
+                        return line;
+                    }
+                }
+
+                int shift = fill();
+
+                if (shift < 0) {
+                    break;
+                }
+                scan -= shift;
+            }
+
+            // Last line with no line break
+            if (pos == limit) {
+                return null;
+            }
+
+            String line = new String(buf, pos, limit - pos, charset);
+            pos = limit;
+            return line;
+        }
+
+        /**
+         * Moves the unread bytes to the front of the buffer,
+         * growing it if full, and reads more bytes after them.
+         *
+         * @return how far the unread bytes moved, or -1 at the
+         *         end of the stream
+         * @throws IOException if unable to read from the stream
+         */
+        private int fill() throws IOException {
+
+            int shift = pos;
+
+            if (shift > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+
+            if (limit == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+
+            int n = in.read(buf, limit, buf.length - limit);
+
+            if (n < 0) {
+                return -1;
+            }
+
+            limit += n;
+            return shift;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (reader != null) {
+                reader.close();
+            }
+
+            else {
+                in.close();
+            }
+        }
+    }
+
+
+
+
+    /**
+     * Reads a stream ahead of the caller on a background thread.
+     * Two blocks are handed back and forth: while the caller reads
+     * one, the thread fills the other. Used to overlap gzip
+     * decompression with splitting and decoding lines.
+     */
+    private static final class PrefetchInputStream extends InputStream {
+
+        private static final int BLOCK_SIZE = 256 * 1024;
+
+        private final InputStream in;
+        private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(2);
+        private final BlockingQueue<byte[]> full = new ArrayBlockingQueue<>(2);
+        private final BlockingQueue<Integer> lengths = new ArrayBlockingQueue<>(2);
+        private final Thread thread;
+
+        private volatile IOException error;
+        private byte[] block;
+        private int pos;
+        private int limit;
+        private boolean eof;
+
+        PrefetchInputStream (InputStream in) {
+
+            this.in = in;
+            free.add(new byte[BLOCK_SIZE]);
+            free.add(new byte[BLOCK_SIZE]);
+
+            thread = new Thread(this::prefetch, "Utils-prefetch");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Fills free blocks until the end of the stream. An empty
+         * block marks the end of the stream or an error.
+         */
+        private void prefetch() {
+
+            try {
+                while (true) {
+
+                    byte[] next = free.take();
+                    int n = in.readNBytes(next, 0, next.length);
+
+                    lengths.put(n);
+                    full.put(next);
+
+                    if (n < next.length) {
+                        return;
+                    }
+                }
+
+            } catch (IOException e) {
+
+                error = e;
+                lengths.offer(0);
+                full.offer(new byte[0]);
+
+            } catch (InterruptedException e) {
+                // Closed by the reader
+            }
+        }
+
+        /**
+         * Gives the current block back to the thread and waits
+         * for the next one.
+         *
+         * @return false at the end of the stream
+         * @throws IOException if the background read failed
+         */
+        private boolean nextBlock() throws IOException {
+
+            if (eof) {
+                return false;
+            }
+
+            if (block != null) {
+                free.add(block);
+            }
+
+            try {
+                block = full.take();
+                limit = lengths.take();
+                pos = 0;
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            if (error != null) {
+                throw error;
+            }
+
+            eof = limit < block.length;
+            return limit > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            if (pos == limit && !nextBlock()) {
+                return -1;
+            }
+            return block[pos++] & 0xff;
+        }
+
+        @Override
+        public int read (byte[] b, int off, int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+
+            if (pos == limit && !nextBlock()) {
+                return -1;
+            }
+
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(block, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            thread.interrupt();
+            in.close();
+        }
+    }
+
+
+
+
+    /**
+     * The lines of a file kept by fileReadCached, along with
+     * the attributes the file had when it was read and when it
+     * was last read from the cache.
+     */
+    private static final class CachedFile {
+
+        // How stale lastRead may get before a hit writes it again
+        private static final long STAMP_NANOS = 1_000_000;
+
+        final Path path;
+        final long modified;
+        final long size;
+        final Object key;
+        final String[] lines;
+        final long bytes;
+        volatile long lastRead = System.nanoTime();
+
+        CachedFile (Path path, BasicFileAttributes attributes) throws IOException {
+
+            String[] lines = readAllLines(DefaultContext.INSTANCE, path.toString());
+            long total = 0;
+
+            for (String line : lines) {
+
+                // Rough size of a String and its array slot
+                total += 48 + 2L * line.length();
+            }
+
+            this.path = path;
+            this.modified = attributes.lastModifiedTime().toMillis();
+            this.size = attributes.size();
+            this.key = attributes.fileKey();
+            this.lines = lines;
+            this.bytes = total;
+        }
+
+        /**
+         * Checks whether the file still has the attributes it had
+         * when it was read.
+         *
+         * @param  attributes the file's current attributes
+         * @return true if the kept lines are still valid
+         */
+        boolean matches (BasicFileAttributes attributes) {
+
+            return modified == attributes.lastModifiedTime().toMillis()
+                    && size == attributes.size()
+                    && Objects.equals(key, attributes.fileKey());
+        }
+
+        /**
+         * Marks the file as just read. The stamp is only written once
+         * it is a little stale, so threads reading the same file at
+         * once do not all write to it.
+         */
+        void touch() {
+
+            long now = System.nanoTime();
+
+            if (now - lastRead > STAMP_NANOS) {
+                lastRead = now;
+            }
+        }
+    }
+
+
+
+
+    /**
+     * A line found by fileSearch and where it starts in the file.
+     */
+    private static final class LineMatch {
+
+        final long offset;
+        final String line;
+
+        LineMatch (long offset, String line) {
+            this.offset = offset;
+            this.line = line;
+        }
+    }
+
+
+
+
+    /**
+     * Finds matches within the bytes of a file for fileSearch.
+     * Matches must not span a line break.
+     */
+    private interface ByteMatcher {
+
+        /**
+         * Finds the first match at or after a given index.
+         *
+         * @param  buf   the bytes to search
+         * @param  from  the first index to search, at the start of a line
+         * @param  to    the index to stop searching at
+         * @return the index of any byte in the match, or -1 if there
+         *         is no match
+         */
+        int find (ByteBuffer buf, int from, int to);
+    }
+
+
+
+
+    /**
+     * Finds a single String. Looks for its first byte 8 bytes at
+     * a time using the "has zero byte" bit trick on longs, then
+     * checks its last byte, and only then compares the bytes in
+     * between.
+     */
+    private static final class LiteralMatcher implements ByteMatcher {
+
+        private static final long ONES = 0x0101010101010101L;
+        private static final long HIGHS = 0x8080808080808080L;
+
+        private final byte[] pattern;
+        private final long firstBytes;
+
+        LiteralMatcher (byte[] pattern) {
+            this.pattern = pattern;
+            this.firstBytes = pattern.length == 0 ? 0 : (pattern[0] & 0xffL) * ONES;
+        }
+
+        @Override
+        public int find (ByteBuffer buf, int from, int to) {
+
+            int m = pattern.length;
+
+            if (m == 0) {
+                return from;
+            }
+
+            byte first = pattern[0];
+            byte last = pattern[m - 1];
+            int lastStart = to - m;
+            int i = from;
+
+            while (i <= lastStart) {
+
+                // Skip ahead to the next copy of the first byte, 8 bytes at a time
+                if (i + 8 <= to) {
+
+                    long word = buf.getLong(i) ^ firstBytes;
+                    long zeros = (word - ONES) & ~word & HIGHS;
+
+                    if (zeros == 0) {
+                        i += 8;
+                        continue;
+                    }
+                    i += Long.numberOfTrailingZeros(zeros) >>> 3;
+
+                    if (i > lastStart) {
+                        break;
+                    }
+                }
+
+                else if (buf.get(i) != first) {
+                    i++;
+                    continue;
+                }
+
+                if (buf.get(i + m - 1) == last && matchesAt(buf, i)) {
+                    return i;
+                }
+                i++;
+            }
+            return -1;
+        }
+
+        /**
+         * Checks whether the pattern's middle bytes appear at an index.
+         *
+         * @param  buf  the bytes to search
+         * @param  i    the index the pattern would start at
+         * @return true if the pattern is at the index
+         */
+        private boolean matchesAt (ByteBuffer buf, int i) {
+
+            for (int j = 1; j < pattern.length - 1; j++) {
+                if (buf.get(i + j) != pattern[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+
+
+    /**
+     * Finds any of several Strings in one pass with the
+     * Aho-Corasick algorithm. The patterns are built into a trie.
+     * The root and the states one byte below it, where most bytes
+     * of input leave the matcher, each get a table of 256 next
+     * states, so a byte costs a single lookup there. Deeper states
+     * keep only their own edges, sorted by byte, and a failure
+     * link to follow when none of them match, so memory grows with
+     * the total length of the patterns rather than 256 times it.
+     */
+    private static final class AhoCorasickMatcher implements ByteMatcher {
+
+        // States below this number have a full row of 256 in next
+        private final int dense;
+        private final int[] next;
+
+        // The edges of state s are edgeStart[s] up to edgeStart[s + 1]
+        private final int[] edgeStart;
+        private final byte[] edgeBytes;
+        private final int[] edgeTargets;
+        private final int[] fail;
+        private final boolean[] accepts;
+
+        AhoCorasickMatcher (byte[][] patterns) {
+
+            int maxStates = 1;
+
+            for (byte[] pattern : patterns) {
+                maxStates += pattern.length;
+            }
+
+            // Build the trie, keeping each state's children in a list
+            int[] firstChild = new int[maxStates];
+            int[] sibling = new int[maxStates];
+            byte[] label = new byte[maxStates];
+            boolean[] out = new boolean[maxStates];
+            int states = 1;
+
+            Arrays.fill(firstChild, -1);
+
+            for (byte[] pattern : patterns) {
+
+                int state = 0;
+
+                for (byte b : pattern) {
+
+                    int child = firstChild[state];
+
+                    while (child >= 0 && label[child] != b) {
+                        child = sibling[child];
+                    }
+
+                    if (child < 0) {
+                        child = states++;
+                        label[child] = b;
+                        sibling[child] = firstChild[state];
+                        firstChild[state] = child;
+                    }
+                    state = child;
+                }
+                out[state] = true;
+            }
+
+            // Number the states breadth first, so the shallow ones come
+            // first, and lay out each state's edges sorted by byte
+            int[] order = new int[states];
+            long[] children = new long[256];
+            int tail = 1;
+            int edges = 0;
+            int shallow = 1;
+
+            this.edgeStart = new int[states + 1];
+            this.edgeBytes = new byte[states - 1];
+            this.edgeTargets = new int[states - 1];
+
+            for (int head = 0; head < tail; head++) {
+
+                int count = 0;
+
+                for (int child = firstChild[order[head]]; child >= 0; child = sibling[child]) {
+                    children[count++] = (long) (label[child] & 0xff) << 32 | child;
+                }
+
+                Arrays.sort(children, 0, count);
+                edgeStart[head] = edges;
+
+                for (int i = 0; i < count; i++) {
+                    order[tail] = (int) children[i];
+                    edgeBytes[edges] = (byte) (children[i] >>> 32);
+                    edgeTargets[edges++] = tail++;
+                }
+
+                if (head == 0) {
+                    shallow = tail;
+                }
+            }
+
+            edgeStart[states] = edges;
+            this.dense = shallow;
+            this.accepts = new boolean[states];
+
+            for (int state = 0; state < states; state++) {
+                accepts[state] = out[order[state]];
+            }
+
+            // The root's row goes to its children or back to the root,
+            // and each child's row to its own children or as the root's
+            this.next = new int[dense * 256];
+
+            for (int state = 0; state < dense; state++) {
+
+                if (state > 0) {
+                    System.arraycopy(next, 0, next, state * 256, 256);
+                }
+
+                for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                    next[state * 256 + (edgeBytes[e] & 0xff)] = edgeTargets[e];
+                }
+            }
+
+            // Link each state to the longest proper suffix of it in the trie
+            this.fail = new int[states];
+
+            for (int state = 0; state < states; state++) {
+
+                for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+
+                    int child = edgeTargets[e];
+                    fail[child] = state == 0 ? 0 : step(fail[state], edgeBytes[e]);
+                    accepts[child] |= accepts[fail[child]];
+                }
+            }
+        }
+
+        /**
+         * Returns the state after reading a byte, following failure
+         * links from a deep state until one has an edge for it.
+         *
+         * @param  state the current state
+         * @param  b     the byte read
+         * @return the next state
+         */
+        private int step (int state, byte b) {
+
+            int key = b & 0xff;
+
+            while (state >= dense) {
+
+                int lo = edgeStart[state];
+                int hi = edgeStart[state + 1] - 1;
+
+                while (lo <= hi) {
+
+                    int mid = (lo + hi) >>> 1;
+                    int edge = edgeBytes[mid] & 0xff;
+
+                    if (edge == key) {
+                        return edgeTargets[mid];
+                    }
+
+                    if (edge < key) {
+                        lo = mid + 1;
+                    }
+
+                    else {
+                        hi = mid - 1;
+                    }
+                }
+                state = fail[state];
+            }
+            return next[state * 256 + key];
+        }
+
+        @Override
+        public int find (ByteBuffer buf, int from, int to) {
+
+            if (accepts[0]) {
+                return from;
+            }
+
+            int state = 0;
+
+            for (int i = from; i < to; i++) {
+
+                byte b = buf.get(i);
+
+                // Matches cannot span lines, so start over on each line
+                if (b == '\n') {
+                    state = 0;
+                    continue;
+                }
+
+                state = step(state, b);
+
+                if (accepts[state]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+
+
+
+    /**
+     * A batch of lines passed along a filePipeline. Each stage
+     * overwrites the lines it keeps in place.
+     */
+    private static final class LineBatch {
+
+        final String[] lines = new String[PIPELINE_BATCH_LINES];
+        int size;
+    }
+
+    /**
+     * One transform in a filePipeline. It receives batches from the
+     * stage before it, applies the transform to every line and
+     * publishes the batch to the stage after it.
+     *
+     * All publishing goes through this object's lock, so that tasks
+     * running in unordered mode never publish after the stage has
+     * been closed. Publishing never waits for room, as no more
+     * batches are in the pipeline than a subscriber's buffer holds.
      */
-    public static void printVar (String varName, double var) {
-        System.out.printf("%s: %s\n", varName, numToStringNoTrailingZeros(var));
+    private static final class PipelineStage extends SubmissionPublisher<LineBatch>
+            implements Flow.Processor<LineBatch, LineBatch> {
+
+        final LongAdder linesIn = new LongAdder();
+        final LongAdder linesOut = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        private final Function<String, String> transform;
+        private final Executor executor;
+        private final boolean ordered;
+        private final PipelineSink sink;
+
+        // Batches still being transformed, plus one until upstream completes
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private Flow.Subscription subscription;
+
+        PipelineStage (Function<String, String> transform, Executor executor, boolean ordered, PipelineSink sink) {
+
+            super(executor, PIPELINE_BATCHES);
+            this.transform = transform;
+            this.executor = executor;
+            this.ordered = ordered;
+            this.sink = sink;
+        }
+
+        @Override
+        public void onSubscribe (Flow.Subscription subscription) {
+
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext (LineBatch batch) {
+
+            if (ordered) {
+                apply(batch);
+                return;
+            }
+
+            pending.incrementAndGet();
+
+            try {
+                executor.execute(() -> {
+                    apply(batch);
+                    finish();
+                });
+
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onError (Throwable failure) {
+            fail(failure);
+        }
+
+        @Override
+        public void onComplete () {
+            finish();
+        }
+
+        /**
+         * Returns the lines this stage has transformed per second
+         * of time spent transforming them.
+         *
+         * @return the lines per second
+         */
+        long throughput () {
+
+            long time = nanos.sum();
+            return time == 0 ? 0 : (long) (linesIn.sum() * 1e9 / time);
+        }
+
+        private void apply (LineBatch batch) {
+
+            long start = System.nanoTime();
+            int kept = 0;
+
+            try {
+                for (int i = 0; i < batch.size; i++) {
+
+                    String line = transform.apply(batch.lines[i]);
+
+                    if (line != null) {
+                        batch.lines[kept++] = line;
+                    }
+                }
+
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+
+            Arrays.fill(batch.lines, kept, batch.size, null);
+            linesIn.add(batch.size);
+            linesOut.add(kept);
+            nanos.add(System.nanoTime() - start);
+            batch.size = kept;
+
+            synchronized (this) {
+                try {
+                    if (!isClosed()) {
+                        submit(batch);
+                    }
+
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        private void finish () {
+
+            if (pending.decrementAndGet() == 0) {
+                synchronized (this) {
+                    try {
+                        close();
+
+                    } catch (RuntimeException e) {
+                        fail(e);
+                    }
+                }
+            }
+        }
+
+        private void fail (Throwable failure) {
+
+            subscription.cancel();
+
+            synchronized (this) {
+                failPipeline(this, sink, failure);
+            }
+        }
+    }
+
+    /**
+     * The end of a filePipeline, which writes each batch to the
+     * output file and lets the reader publish another one. The
+     * result holds the number of lines written once the pipeline
+     * completes, or why it failed.
+     */
+    private static final class PipelineSink implements Flow.Subscriber<LineBatch> {
+
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        private final Writer writer;
+        private final Semaphore permits;
+        private Flow.Subscription subscription;
+        private long lines;
+
+        PipelineSink (Writer writer, Semaphore permits) {
+
+            this.writer = writer;
+            this.permits = permits;
+        }
+
+        @Override
+        public void onSubscribe (Flow.Subscription subscription) {
+
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext (LineBatch batch) {
+
+            if (result.isDone()) {
+                return;
+            }
+
+            try {
+                for (int i = 0; i < batch.size; i++) {
+                    writer.write(batch.lines[i]);
+                    writer.write('\n');
+                }
+
+            } catch (IOException e) {
+                subscription.cancel();
+                onError(e);
+                return;
+            }
+
+            lines += batch.size;
+            permits.release();
+        }
+
+        @Override
+        public void onError (Throwable failure) {
+
+            result.completeExceptionally(failure);
+
+            // Wakes the reader if it is waiting, so it sees the failure
+            permits.release(PIPELINE_BATCHES);
+        }
+
+        @Override
+        public void onComplete () {
+            result.complete(lines);
+        }
+    }
+
+    /**
+     * Owns the buffers, encoders, decoders and open files used by
+     * the file functions, so that they are reused from one call to
+     * the next instead of being made and thrown away each time.
+     * Each file function has a Context method of the same name, and
+     * the static ones use a default Context that lives as long as
+     * the program; make your own to give a batch of work its own
+     * pool and to close everything it opened at once. The cache of
+     * fileReadCached is shared by the whole program, so it always
+     * loads files through the default Context.
+     *
+     * Buffers come from a cache of one per thread, then from a pool
+     * shared by the threads using the Context that keeps up to one
+     * buffer per core. Encoders and decoders are kept per thread,
+     * as they cannot be shared. Every file is closed when the call
+     * that opened it returns, even if it fails; closing the Context
+     * closes any file still open in another thread, empties the
+     * pool and drops every thread's cached buffer, encoders and
+     * decoders. A closed Context throws IllegalStateException.
+     *
+     * Run with -Dutils.debug=true to find leaks: a Context that is
+     * garbage collected without being closed prints where it was
+     * made, and closing a Context prints any files still open and
+     * buffers not given back.
+     *
+     * Example:
+     * try (Utils.Context context = new Utils.Context()) {
+     *     int lines = context.fileRead("in.txt", arr, StandardCharsets.UTF_8);
+     *     context.fileWrite("out.txt", Arrays.copyOf(arr, lines), StandardCharsets.UTF_8);
+     * }
+     */
+    public static final class Context implements AutoCloseable {
+
+        private static final boolean DEBUG = Boolean.getBoolean("utils.debug");
+        private static final int BUFFER_SIZE = LineReader.BUFFER_SIZE;
+        private static final int CHAR_BUFFER_SIZE = 8 * 1024;
+
+        private final boolean closeable;
+        private final BlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+        private final ThreadLocal<ThreadCache> threadCache = ThreadLocal.withInitial(this::newThreadCache);
+
+        // Every thread's cache, so that close can empty them all. Weak, so
+        // the cache of a thread that has ended is not kept for it.
+        private final Set<ThreadCache> threadCaches = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+        // Each open file, to the name it was opened with
+        private final ConcurrentHashMap<Closeable, String> handles = new ConcurrentHashMap<>();
+        private final AtomicInteger buffersOut = new AtomicInteger();
+        private final LeakCheck leakCheck;
+        private final Cleaner.Cleanable cleanable;
+        private volatile boolean closed;
+
+        /**
+         * Makes a Context with an empty pool.
+         */
+        public Context() {
+            this(true);
+        }
+
+        Context (boolean closeable) {
+
+            this.closeable = closeable;
+
+            if (DEBUG && closeable) {
+                leakCheck = new LeakCheck(new Throwable());
+                cleanable = LeakCheck.CLEANER.register(this, leakCheck);
+            }
+
+            else {
+                leakCheck = null;
+                cleanable = null;
+            }
+        }
+
+        /**
+         * Adds a String array to the end of a file with a given
+         * charset. See Utils.fileAppend.
+         *
+         * @param  fileName    the file name
+         * @param  arr         the String array to write with
+         * @param  charset     the charset to encode the file with
+         * @return true if write was successful, false otherwise
+         * @throws IllegalStateException if the Context is closed
+         */
+        public boolean fileAppend (String fileName, String[] arr, Charset charset) {
+            return Utils.fileAppend(this, fileName, arr, charset);
+        }
+
+        /**
+         * Writes the differences between two files to a third
+         * file. See Utils.fileDiff.
+         *
+         * @param  oldFileName  the original file name
+         * @param  newFileName  the changed file name
+         * @param  diffFileName the file name to write the differences to
+         * @return true if the diff was written, false otherwise
+         * @throws IllegalStateException if the Context is closed
+         */
+        public boolean fileDiff (String oldFileName, String newFileName, String diffFileName) {
+            return Utils.fileDiff(this, oldFileName, newFileName, diffFileName);
+        }
+
+        /**
+         * Applies a diff written by fileDiff to a file. See
+         * Utils.filePatch.
+         *
+         * @param  fileName     the file name to patch
+         * @param  diffFileName the diff file name
+         * @return true if the patch was applied, false otherwise
+         * @throws IllegalStateException if the Context is closed
+         */
+        public boolean filePatch (String fileName, String diffFileName) {
+            return Utils.filePatch(this, fileName, diffFileName);
+        }
+
+        /**
+         * Streams a file line by line through a chain of transforms
+         * into another file. See Utils.filePipeline.
+         *
+         * @param  inFileName  the file name to read from
+         * @param  outFileName the file name to write to
+         * @param  charset     the charset of both files
+         * @param  executor    the executor to run the stages on
+         * @param  ordered     true to keep the lines in order
+         * @param  stages      the transforms, applied in order
+         * @return the number of lines written, or -1 if unsuccessful
+         * @throws IllegalStateException if the Context is closed
+         */
+        @SafeVarargs
+        public final long filePipeline (String inFileName, String outFileName, Charset charset,
+                                        Executor executor, boolean ordered, Function<String, String>... stages) {
+            return Utils.filePipeline(this, inFileName, outFileName, charset, executor, ordered, stages);
+        }
+
+        /**
+         * Reads a file with a given charset and stores its data
+         * to a String array. See Utils.fileRead.
+         *
+         * @param  fileName the file name
+         * @param  arr      the String array to store the data into
+         * @param  charset  the charset the file is encoded with
+         * @return the number of lines read from the file, or -1
+         *         if the file could not be read
+         * @throws IllegalStateException if the Context is closed
+         */
+        public int fileRead (String fileName, String[] arr, Charset charset) {
+            return Utils.fileRead(this, fileName, arr, charset);
+        }
+
+        /**
+         * Reads one column of a delimited file and stores it to
+         * a String array. See Utils.fileReadColumn.
+         *
+         * @param  fileName  the file name
+         * @param  delimiter the character separating each field
+         * @param  column    the column to read, starting from 0
+         * @param  arr       the array to store the data into
+         * @return the number of lines read from the file, or -1
+         *         if the file could not be read
+         * @throws IllegalStateException if the Context is closed
+         */
+        public int fileReadColumn (String fileName, char delimiter, int column, String[] arr) {
+            return Utils.readColumns(this, fileName, delimiter, new int[] { column }, new Object[] { arr });
+        }
+
+        /**
+         * Reads one column of a delimited file and stores it to
+         * an int array. See Utils.fileReadColumn.
+         *
+         * @param  fileName  the file name
+         * @param  delimiter the character separating each field
+         * @param  column    the column to read, starting from 0
+         * @param  arr       the array to store the data into
+         * @return the number of lines read from the file, or -1
+         *         if the file could not be read
+         * @throws IllegalStateException if the Context is closed
+         */
+        public int fileReadColumn (String fileName, char delimiter, int column, int[] arr) {
+            return Utils.readColumns(this, fileName, delimiter, new int[] { column }, new Object[] { arr });
+        }
+
+        /**
+         * Reads one column of a delimited file and stores it to
+         * a double array. See Utils.fileReadColumn.
+         *
+         * @param  fileName  the file name
+         * @param  delimiter the character separating each field
+         * @param  column    the column to read, starting from 0
+         * @param  arr       the array to store the data into
+         * @return the number of lines read from the file, or -1
+         *         if the file could not be read
+         * @throws IllegalStateException if the Context is closed
+         */
+        public int fileReadColumn (String fileName, char delimiter, int column, double[] arr) {
+            return Utils.readColumns(this, fileName, delimiter, new int[] { column }, new Object[] { arr });
+        }
+
+        /**
+         * Reads one column of a delimited file and stores it to
+         * a float array. See Utils.fileReadColumn.
+         *
+         * @param  fileName  the file name
+         * @param  delimiter the character separating each field
+         * @param  column    the column to read, starting from 0
+         * @param  arr       the array to store the data into
+         * @return the number of lines read from the file, or -1
+         *         if the file could not be read
+         * @throws IllegalStateException if the Context is closed
+         */
+        public int fileReadColumn (String fileName, char delimiter, int column, float[] arr) {
+            return Utils.readColumns(this, fileName, delimiter, new int[] { column }, new Object[] { arr });
+        }
+
+        /**
+         * Reads several columns of a delimited file in one pass and
+         * stores each to its own array. See Utils.fileReadColumn.
+         *
+         * @param  fileName  the file name
+         * @param  delimiter the character separating each field
+         * @param  columns   the columns to read, starting from 0
+         * @param  arrs      the array to store each column into
+         * @return the number of lines read from the file, or -1 if
+         *         the file could not be read or a field could not be parsed
+         * @throws IllegalStateException if the Context is closed
+         */
+        public int fileReadColumn (String fileName, char delimiter, int[] columns, Object[] arrs) {
+            return Utils.readColumns(this, fileName, delimiter, columns, arrs);
+        }
+
+        /**
+         * Reads a file and stores each line as an id from a
+         * Dictionary. See Utils.fileReadEncoded.
+         *
+         * @param  fileName the file name
+         * @param  ids      the int array to store the line ids into
+         * @param  dict     the Dictionary to add the lines to
+         * @return the number of lines read from the file, or -1 if the
+         *         file could not be read or the Dictionary is full
+         * @throws IllegalStateException if the Context is closed
+         */
+        public int fileReadEncoded (String fileName, int[] ids, Dictionary dict) {
+            return Utils.fileReadEncoded(this, fileName, ids, dict);
+        }
+
+        /**
+         * Searches a file for lines containing a String. See
+         * Utils.fileSearch.
+         *
+         * @param  fileName the file name
+         * @param  literal  the String to search for
+         * @param  arr      the String array to store the matching lines into
+         * @param  offsets  the long array to store the offsets into, or null
+         * @return the number of matching lines, or -1 if the file
+         *         could not be read
+         * @throws IllegalStateException if the Context is closed
+         */
+        public int fileSearch (String fileName, String literal, String[] arr, long[] offsets) {
+            return Utils.fileSearch(this, fileName, new LiteralMatcher(literal.getBytes(Charset.defaultCharset())), arr, offsets);
+        }
+
+        /**
+         * Searches a file for lines containing any of several
+         * Strings. See Utils.fileSearch.
+         *
+         * @param  fileName the file name
+         * @param  literals the Strings to search for
+         * @param  arr      the String array to store the matching lines into
+         * @param  offsets  the long array to store the offsets into, or null
+         * @return the number of matching lines, or -1 if the file
+         *         could not be read
+         * @throws IllegalStateException if the Context is closed
+         */
+        public int fileSearch (String fileName, String[] literals, String[] arr, long[] offsets) {
+            return Utils.fileSearch(this, fileName, literalsMatcher(literals), arr, offsets);
+        }
+
+        /**
+         * Writes a String array to a file with a given charset.
+         * Each String element is written on its own line. See
+         * Utils.fileWrite.
+         *
+         * @param  fileName    the file name
+         * @param  arr         the String array to write with
+         * @param  charset     the charset to encode the file with
+         * @return true if write was successful, false otherwise
+         * @throws IllegalStateException if the Context is closed
+         */
+        public boolean fileWrite (String fileName, String[] arr, Charset charset) {
+            return Utils.fileWrite(this, fileName, arr, charset);
+        }
+
+        /**
+         * Writes several String arrays to several files, without
+         * ever leaving a partly written file behind. See
+         * Utils.fileWriteAtomic.
+         *
+         * @param  fileNames   the file names
+         * @param  arrs        the String arrays to write with, one per file
+         * @param  charset     the charset to encode the files with
+         * @param  policy      how much to flush to disk before returning
+         * @return true if every file was written, false otherwise
+         * @throws IllegalStateException if the Context is closed
+         */
+        public boolean fileWriteAtomic (String[] fileNames, String[][] arrs, Charset charset, SyncPolicy policy) {
+            return Utils.fileWriteAtomic(this, fileNames, arrs, charset, policy);
+        }
+
+        /**
+         * Writes a String array to a gzip-compressed file with a
+         * given charset. See Utils.fileWriteCompressed.
+         *
+         * @param  fileName    the file name
+         * @param  arr         the String array to write with
+         * @param  charset     the charset to encode the file with
+         * @return true if write was successful, false otherwise
+         * @throws IllegalStateException if the Context is closed
+         */
+        public boolean fileWriteCompressed (String fileName, String[] arr, Charset charset) {
+            return Utils.fileWriteCompressed(this, fileName, arr, charset);
+        }
+
+        /**
+         * Writes a String array to a file with a given charset
+         * while holding a lock on it. See Utils.fileWriteLocked.
+         *
+         * @param  fileName    the file name
+         * @param  arr         the String array to write with
+         * @param  charset     the charset to encode the file with
+         * @return true if write was successful, false otherwise
+         * @throws IllegalStateException if the Context is closed
+         */
+        public boolean fileWriteLocked (String fileName, String[] arr, Charset charset) {
+            return Utils.fileWriteLocked(this, fileName, arr, charset);
+        }
+
+        /**
+         * Returns the number of files this Context has open.
+         *
+         * @return the number of open files
+         */
+        public int openFiles() {
+            return handles.size();
+        }
+
+        /**
+         * Closes any files still open, empties the pool and drops
+         * the buffer, encoders and decoders cached for each thread
+         * that used this Context. Does nothing if already closed,
+         * or for the default Context.
+         */
+        @Override
+        public void close() {
+
+            if (!closeable || closed) {
+                return;
+            }
+            closed = true;
+
+            if (DEBUG) {
+
+                for (String fileName : handles.values()) {
+                    printMsg(LogLevel.WARN, () -> "WARN: Utils.Context closed while '" + fileName + "' was open.\n");
+                }
+
+                int buffers = buffersOut.get();
+
+                if (buffers > 0) {
+                    printMsg(LogLevel.WARN, () -> "WARN: Utils.Context closed with " + buffers + " buffers not given back.\n");
+                }
+
+                leakCheck.closed = true;
+                cleanable.clean();
+            }
+
+            for (Closeable handle : handles.keySet()) {
+
+                try {
+                    handle.close();
+
+                } catch (IOException e) {
+                    // The call using it reports the failure
+                }
+            }
+
+            handles.clear();
+            pool.clear();
+
+            synchronized (threadCaches) {
+
+                for (ThreadCache cache : threadCaches) {
+                    cache.buffer = null;
+                    cache.codecs = null;
+                }
+                threadCaches.clear();
+            }
+            threadCache.remove();
+        }
+
+        private void checkOpen() {
+
+            if (closed) {
+                throw new IllegalStateException("Utils.Context is closed");
+            }
+        }
+
+        private byte[] acquireBuffer() {
+
+            buffersOut.incrementAndGet();
+            ThreadCache cache = threadCache.get();
+            byte[] buf = cache.buffer;
+
+            if (buf != null) {
+                cache.buffer = null;
+                return buf;
+            }
+
+            buf = pool.poll();
+            return buf != null ? buf : new byte[BUFFER_SIZE];
+        }
+
+        private void releaseBuffer (byte[] buf) {
+
+            buffersOut.decrementAndGet();
+
+            if (closed) {
+                return;
+            }
+
+            ThreadCache cache = threadCache.get();
+
+            if (cache.buffer == null) {
+                cache.buffer = buf;
+            }
+
+            else {
+                pool.offer(buf);
+            }
+        }
+
+        /**
+         * Makes the cache for a thread that has not used this
+         * Context before, and records it so close can empty it.
+         *
+         * @return the new cache
+         */
+        private ThreadCache newThreadCache() {
+
+            ThreadCache cache = new ThreadCache();
+
+            if (closeable) {
+                threadCaches.add(cache);
+            }
+            return cache;
+        }
+
+        /**
+         * Returns this thread's encoders and decoders, making them
+         * on first use. Once the Context is closed they are made
+         * for the call but not kept.
+         *
+         * @return this thread's encoders and decoders
+         */
+        private Codecs codecs() {
+
+            ThreadCache cache = threadCache.get();
+            Codecs threadCodecs = cache.codecs;
+
+            if (threadCodecs == null) {
+                threadCodecs = new Codecs();
+
+                if (!closed) {
+                    cache.codecs = threadCodecs;
+                }
+            }
+            return threadCodecs;
+        }
+
+        /**
+         * Records a file as open until untrack is called, so that
+         * closing the Context can close it.
+         *
+         * @param  handle   the open file
+         * @param  fileName the name it was opened with
+         */
+        private void track (Closeable handle, String fileName) {
+            handles.put(handle, fileName);
+        }
+
+        /**
+         * Stops tracking a file, once the call using it is done.
+         *
+         * @param  handle   the file
+         */
+        private void untrack (Closeable handle) {
+            handles.remove(handle);
+        }
+
+        /**
+         * Opens a file for reading lines, splitting them in a
+         * buffer lent by this Context. Gzip files are decompressed.
+         *
+         * @param  fileName the file name
+         * @param  charset  the charset the file is encoded with
+         * @param  buf      a buffer from acquireBuffer
+         * @return the reader
+         * @throws IOException if the file cannot be opened
+         */
+        private LineReader openLines (String fileName, Charset charset, byte[] buf) throws IOException {
+            return new LineReader(openInput(fileName), charset, buf, codecs().decoder(charset));
+        }
+
+        /**
+         * Writes lines to a file with this thread's encoder, each
+         * followed by a line break.
+         *
+         * @param  channel the file to write to
+         * @param  arr     the lines to write
+         * @param  charset the charset to encode the lines with
+         * @param  buf     a buffer from acquireBuffer
+         * @throws IOException if unable to write to the file
+         */
+        private void writeLines (FileChannel channel, String[] arr, Charset charset, byte[] buf) throws IOException {
+
+            Codecs threadCodecs = codecs();
+            writeLines(channel, arr, threadCodecs.encoder(charset), threadCodecs.chars, ByteBuffer.wrap(buf));
+        }
+
+        /**
+         * Encodes lines into a byte buffer and writes it out each
+         * time it fills. The lines are copied into a char array
+         * first, as encoders are much faster on arrays than on
+         * Strings.
+         *
+         * @param  channel the file to write to
+         * @param  arr     the lines to write
+         * @param  encoder the encoder to use
+         * @param  chars   the char array to copy the lines into
+         * @param  out     the byte buffer to encode into
+         * @throws IOException if unable to write to the file
+         */
+        private static void writeLines (FileChannel channel, String[] arr, CharsetEncoder encoder,
+                                        char[] chars, ByteBuffer out) throws IOException {
+
+            CharBuffer in = CharBuffer.wrap(chars);
+
+            for (int i = 0; i < arr.length; i++) {
+
+                String line = arr[i];
+                int from = 0;
+
+                while (from < line.length()) {
+
+                    if (!in.hasRemaining()) {
+                        encode(channel, encoder, in, out, false);
+                    }
+
+                    int n = Math.min(line.length() - from, in.remaining());
+                    line.getChars(from, from + n, chars, in.position());
+                    in.position(in.position() + n);
+                    from += n;
+                }
+
+                if (!in.hasRemaining()) {
+                    encode(channel, encoder, in, out, false);
+                }
+                in.put('\n');
+            }
+
+            encode(channel, encoder, in, out, true);
+
+            while (encoder.flush(out).isOverflow()) {
+                writeOut(channel, out);
+            }
+            writeOut(channel, out);
+        }
+
+        /**
+         * Encodes the chars put in a buffer so far, writing out the
+         * byte buffer each time it fills. Chars that cannot be
+         * encoded yet, such as half a surrogate pair, are kept.
+         */
+        private static void encode (FileChannel channel, CharsetEncoder encoder, CharBuffer in,
+                                    ByteBuffer out, boolean endOfInput) throws IOException {
+
+            in.flip();
+
+            while (encoder.encode(in, out, endOfInput).isOverflow()) {
+                writeOut(channel, out);
+            }
+            in.compact();
+        }
+
+        private static void writeOut (FileChannel channel, ByteBuffer out) throws IOException {
+
+            out.flip();
+
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+
+        /**
+         * What one thread keeps for reuse between calls: a buffer
+         * and its encoders and decoders. The fields are volatile, as
+         * close empties every thread's cache from its own thread.
+         */
+        private static final class ThreadCache {
+
+            volatile byte[] buffer;
+            volatile Codecs codecs;
+        }
+
+        /**
+         * One thread's encoders and decoders, reset before each use.
+         * They replace bytes and chars they cannot convert, as
+         * InputStreamReader and OutputStreamWriter do.
+         */
+        private static final class Codecs {
+
+            final char[] chars = new char[CHAR_BUFFER_SIZE];
+            private final Map<Charset, CharsetEncoder> encoders = new HashMap<>();
+            private final Map<Charset, CharsetDecoder> decoders = new HashMap<>();
+
+            CharsetEncoder encoder (Charset charset) {
+
+                CharsetEncoder encoder = encoders.get(charset);
+
+                if (encoder == null) {
+                    encoder = charset.newEncoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                    encoders.put(charset, encoder);
+                }
+                return encoder.reset();
+            }
+
+            CharsetDecoder decoder (Charset charset) {
+
+                CharsetDecoder decoder = decoders.get(charset);
+
+                if (decoder == null) {
+                    decoder = charset.newDecoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                    decoders.put(charset, decoder);
+                }
+                return decoder.reset();
+            }
+        }
+
+        /**
+         * Reports a Context that was never closed, in debug mode. It
+         * must not refer to the Context, or the Context would never
+         * become unreachable.
+         */
+        private static final class LeakCheck implements Runnable {
+
+            static final Cleaner CLEANER = Cleaner.create();
+
+            private final Throwable created;
+            volatile boolean closed;
+
+            LeakCheck (Throwable created) {
+                this.created = created;
+            }
+
+            @Override
+            public void run() {
+
+                if (closed) {
+                    return;
+                }
+
+                StringBuilder message = new StringBuilder("WARN: Utils.Context was never closed. It was made at:\n");
+
+                for (StackTraceElement frame : created.getStackTrace()) {
+                    message.append("    at ").append(frame).append('\n');
+                }
+                printMsg(LogLevel.WARN, message::toString);
+            }
+        }
     }
 
     /**
-     * Prints a float variable's name and value. Useful
-     * for debugging or checking a variable's value
-     * in a loop.
-     *
-     * Example:
-     * numF: 1024
-     * numF: 2048
-     * numF: 4096
+     * A bounded table of distinct Strings, each given a small int
+     * id, in the order they were first added. Used to store
+     * repeated lines once; see fileReadEncoded.
      *
-     * @param varName the variable's name
-     * @param var     the variable
-     */
-    public static void printVar (String varName, float var) {
-        System.out.printf("%s: %s\n", varName, numToStringNoTrailingZeros(var));
-    }
-
-    /**
-     * Prints a String variable's name and value. Useful
-     * for debugging or checking a variable's value in a
-     * loop.
+     * The table is open addressing with linear probing over atomic
+     * arrays, so any number of threads may add and look up Strings
+     * at once without locking. It holds at most the capacity given
+     * when it is made and never grows.
      *
      * Example:
-     * str1: this is a string
-     * str1: THIS IS A STRING
-     * str1: THIS
-     *
-     * @param varName the variable's name
-     * @param var     the variable
+     * Utils.Dictionary dict = new Utils.Dictionary(100);
+     * int ok = dict.intern("OK");
+     * dict.get(ok);   // "OK"
      */
-    public static void printVar (String varName, String var) {
-        System.out.printf("%s: %s\n", varName, var);
-    }
+    public static final class Dictionary {
+
+        // A slot's id is stored plus one; 0 means not assigned yet, -1 means full
+        private static final int PENDING = 0;
+        private static final int FULL = -1;
+
+        // The id fileReadEncoded gives unused elements, read as ""
+        static final int UNUSED = -1;
+
+        private final int capacity;
+        private final int mask;
+        private final AtomicReferenceArray<String> slots;
+        private final AtomicIntegerArray slotIds;
+        private final AtomicReferenceArray<String> strings;
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * Makes an empty Dictionary.
+         *
+         * @param capacity the most distinct Strings it may hold
+         */
+        public Dictionary (int capacity) {
+
+            // Keep the table at most half full so probes stay short
+            int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+
+            this.capacity = capacity;
+            this.mask = tableSize - 1;
+            this.slots = new AtomicReferenceArray<>(tableSize);
+            this.slotIds = new AtomicIntegerArray(tableSize);
+            this.strings = new AtomicReferenceArray<>(capacity);
+        }
 
+        /**
+         * Returns the id of a String, adding it if it is not in
+         * the Dictionary yet.
+         *
+         * @param  str the String to look up
+         * @return the String's id, or -1 if it is new and the
+         *         Dictionary is full
+         */
+        public int intern (String str) {
 
+            int h = str.hashCode();
+            int i = (h ^ (h >>> 16)) & mask;
 
+            while (true) {
 
-    /**
-     * Prompts the user to input a double with no message.
-     * Rejects any non-numeric values.
-     *
-     * @return the double
-     */
-    public static double promptNum() {
-        return promptNum("");
-    }
+                String current = slots.get(i);
 
-    /**
-     * Prompts the user to input a double with a message.
-     * Rejects any non-numeric values.
-     *
-     * @param message the message to prompt the user
-     * @return the double
-     */
-    public static double promptNum (String message) {
+                if (current == null) {
 
-        printMsg(message);
+                    if (count.get() >= capacity) {
+                        return -1;
+                    }
+
+                    if (!slots.compareAndSet(i, null, str)) {
+                        continue;
+                    }
+
+                    int id = count.getAndIncrement();
+
+                    if (id >= capacity) {
+                        slotIds.set(i, FULL);
+                        return -1;
+                    }
 
-        double num;
-        Scanner scanner = new Scanner(System.in);
+                    strings.set(id, str);
+                    slotIds.set(i, id + 1);
+                    return id;
+                }
+
+                if (current.equals(str)) {
 
-        while (!scanner.hasNextDouble()) {
+                    // Another thread claimed the slot; wait for it to assign the id
+                    int id;
+
+                    while ((id = slotIds.get(i)) == PENDING) {
+                        Thread.onSpinWait();
+                    }
+                    return id == FULL ? -1 : id - 1;
+                }
 
-            // If user does not input a number
-            System.out.print("\nPlease input a number.\n");
-            scanner = new Scanner(System.in);
+                i = (i + 1) & mask;
+            }
         }
 
-        num = scanner.nextDouble();
-        return num;
-    }
+        /**
+         * Returns the String with a given id. The id -1, given by
+         * fileReadEncoded to unused elements, is the empty String.
+         *
+         * @param  id the id returned by intern, or -1
+         * @return the String
+         */
+        public String get (int id) {
+            return id == UNUSED ? "" : strings.get(id);
+        }
 
+        /**
+         * Returns the number of distinct Strings held.
+         *
+         * @return the number of Strings
+         */
+        public int size() {
+            return Math.min(count.get(), capacity);
+        }
 
+        /**
+         * Returns the Strings for an array of ids. The Strings
+         * are shared with the Dictionary, not copied.
+         *
+         * @param  ids the ids to look up
+         * @return the Strings, in the same order
+         */
+        String[] decode (int[] ids) {
 
+            String[] arr = new String[ids.length];
 
-    /**
-     * Prompts the user to input a double with a message.
-     * Rejects any non-numeric values or numbers less than
-     * minimum possible input.
-     *
-     * @param min     the minimum possible input
-     * @return the double
-     */
-    public static double promptNumMin (double min) {
-        return promptNumMin(min, "");
+            for (int i = 0; i < ids.length; i++) {
+                arr[i] = get(ids[i]);
+            }
+            return arr;
+        }
     }
 
     /**
-     * Prompts the user to input a double with a message.
-     * Rejects any non-numeric values or numbers less than
-     * minimum possible input.
+     * A prompt that can be asked again and again, such as by a
+     * scripted harness. The message, the error messages and the
+     * check on the input are all worked out once, when the Prompt
+     * is made, rather than on every call as promptNum and the other
+     * prompt functions do. The messages are encoded to bytes up
+     * front and written straight to System.out.
      *
-     * @param min     the minimum possible input
-     * @param message the message to prompt the user
-     * @return the double
+     * A Prompt does not change once made, so one may be shared by
+     * any number of threads. Each ask reads whole lines from
+     * System.in, through a reader shared with the prompt functions,
+     * and holds a lock shared by all Prompts until it has a valid
+     * answer, so the questions and answers of different threads
+     * never mix.
+     *
+     * When the input runs out, ask throws NoSuchElementException,
+     * as the prompt functions do.
+     *
+     * Example:
+     * Utils.Prompt age = Utils.Prompt.numRange(0, 150, "Age?\n");
+     * Utils.Prompt again = Utils.Prompt.yn("Another (Y/N)?\n");
+     *
+     * do {
+     *     ages.add(age.askNum());
+     * } while (again.askYN());
      */
-    public static double promptNumMin (double min, String message) {
+    public static final class Prompt {
 
-        printMsg(message);
-        double num;
-        boolean validInput;
+        private static final byte[] NOT_A_NUMBER = encode("\nPlease input a number.\n");
 
-        do {
-            num = promptNum();
-            validInput = num >= min;
+        private enum Kind {
+            NUMBER,
+            YES_NO,
+            TOKEN
+        }
 
-            if (!validInput) {
-                System.out.printf("\nPlease input a number greater than or equal to %s.\n", numToStringNoTrailingZeros(min));
-            }
+        private final Kind kind;
+        private final byte[] message;
+        private final byte[] error;
+
+        // For NUMBER; -Infinity and Infinity when there is no bound
+        private final double min;
+        private final double max;
+        private final boolean minInclusive;
+        private final boolean maxInclusive;
+
+        // For TOKEN, each accepted token in lower case, to the token as given
+        private final Map<String, String> tokens;
+
+        private Prompt (Kind kind, String message, String error, double min, boolean minInclusive,
+                        double max, boolean maxInclusive, Map<String, String> tokens) {
+
+            this.kind = kind;
+            this.message = message.isEmpty() || message.equals("\n") ? new byte[0] : encode(message);
+            this.error = error == null ? null : encode(error);
+            this.min = min;
+            this.max = max;
+            this.minInclusive = minInclusive;
+            this.maxInclusive = maxInclusive;
+            this.tokens = tokens;
+        }
 
-        } while (!validInput);
+        private static Prompt number (String message, String error, double min, boolean minInclusive,
+                                      double max, boolean maxInclusive) {
+            return new Prompt(Kind.NUMBER, message, error, min, minInclusive, max, maxInclusive, null);
+        }
 
-        return num;
-    }
+        /**
+         * Makes a Prompt for any number, like promptNum.
+         *
+         * @param  message the message to prompt the user
+         * @return the Prompt
+         */
+        public static Prompt num (String message) {
+            return number(message, null, Double.NEGATIVE_INFINITY, true, Double.POSITIVE_INFINITY, true);
+        }
 
+        /**
+         * Makes a Prompt for a number no less than a minimum,
+         * like promptNumMin.
+         *
+         * @param  min     the minimum possible input
+         * @param  message the message to prompt the user
+         * @return the Prompt
+         */
+        public static Prompt numMin (double min, String message) {
+            return number(message, "\nPlease input a number greater than or equal to " + numToStringNoTrailingZeros(min) + ".\n",
+                    min, true, Double.POSITIVE_INFINITY, true);
+        }
 
+        /**
+         * Makes a Prompt for a number no greater than a maximum,
+         * like promptNumMax.
+         *
+         * @param  max     the maximum possible input
+         * @param  message the message to prompt the user
+         * @return the Prompt
+         */
+        public static Prompt numMax (double max, String message) {
+            return number(message, "\nPlease input a number less than or equal to " + numToStringNoTrailingZeros(max) + ".\n",
+                    Double.NEGATIVE_INFINITY, true, max, true);
+        }
 
+        /**
+         * Makes a Prompt for a positive number, like promptNumPos.
+         *
+         * @param  message the message to prompt the user
+         * @return the Prompt
+         */
+        public static Prompt numPos (String message) {
+            return number(message, "\nPlease input a positive number.\n", 0, false, Double.POSITIVE_INFINITY, true);
+        }
 
-    /**
-     * Prompts the user to input a double with a message.
-     * Rejects any non-numeric values or numbers greater than
-     * maximum possible input.
-     *
-     * @param max     the minimum possible input
-     * @return the double
-     */
-    public static double promptNumMax (double max) {
-        return promptNumMax(max, "");
-    }
+        /**
+         * Makes a Prompt for a negative number, like promptNumNeg.
+         *
+         * @param  message the message to prompt the user
+         * @return the Prompt
+         */
+        public static Prompt numNeg (String message) {
+            return number(message, "\nPlease input a negative number.\n", Double.NEGATIVE_INFINITY, true, 0, false);
+        }
 
-    /**
-     * Prompts the user to input a double with a message.
-     * Rejects any non-numeric values or numbers greater than
-     * maximum possible input.
-     *
-     * @param max     the minimum possible input
-     * @param message the message to prompt the user
-     * @return the double
-     */
-    public static double promptNumMax (double max, String message) {
+        /**
+         * Makes a Prompt for a number within a range, like
+         * promptNumRange.
+         *
+         * @param  min     the min, inclusive
+         * @param  max     the max, inclusive
+         * @param  message the message to prompt the user
+         * @return the Prompt
+         */
+        public static Prompt numRange (double min, double max, String message) {
+            return number(message, "\nPlease input a number between " + numToStringNoTrailingZeros(min)
+                    + " and " + numToStringNoTrailingZeros(max) + ".\n", min, true, max, true);
+        }
 
-        printMsg(message);
-        double num;
-        boolean validInput;
+        /**
+         * Makes a Prompt for Y or N, in either case, like promptYN.
+         *
+         * @param  message the message to prompt the user
+         * @return the Prompt
+         */
+        public static Prompt yn (String message) {
+            return new Prompt(Kind.YES_NO, message, "\nPlease input either 'Y' or 'N'.\n", 0, true, 0, true, null);
+        }
+
+        /**
+         * Makes a Prompt for one of a set of words, in any case.
+         * Spaces around the input are ignored.
+         *
+         * Example:
+         * Utils.Prompt.tokens("Difficulty?\n", "easy", "normal", "hard").askToken();
+         *
+         * @param  message  the message to prompt the user
+         * @param  accepted the words the user may input
+         * @return the Prompt
+         */
+        public static Prompt tokens (String message, String... accepted) {
+
+            Map<String, String> tokens = new HashMap<>();
+
+            for (int i = 0; i < accepted.length; i++) {
+                tokens.put(accepted[i].toLowerCase(Locale.ROOT), accepted[i]);
+            }
 
-        do {
-            num = promptNum();
-            validInput = num <= max;
+            return new Prompt(Kind.TOKEN, message, "\nPlease input one of: " + String.join(", ", accepted) + ".\n",
+                    0, true, 0, true, tokens);
+        }
+
+        /**
+         * Makes a Prompt that prints a menu with a title, like menu.
+         * The options are numbered from 1.
+         *
+         * @param  title   the title of the menu
+         * @param  options the String array containing the possible options
+         * @return the Prompt
+         */
+        public static Prompt menu (String title, String[] options) {
 
-            if (!validInput) {
-                System.out.printf("\nPlease input a number less than or equal to %s.\n", numToStringNoTrailingZeros(max));
+            StringBuilder message = new StringBuilder();
+
+            if (!title.isEmpty()) {
+                message.append(title).append('\n');
             }
 
-        } while (!validInput);
+            for (int i = 0; i < options.length; i++) {
+                message.append(i + 1).append(". ").append(options[i]).append('\n');
+            }
 
-        return num;
-    }
+            return number(message.toString(), "\nPlease input a number between 1 and " + options.length + ".\n",
+                    1, true, options.length, true);
+        }
 
+        /**
+         * Asks for a number until one is input that this
+         * Prompt accepts.
+         *
+         * @return the number
+         * @throws IllegalStateException if this Prompt is not for a number
+         */
+        public double askNum() {
 
+            check(Kind.NUMBER);
 
+            synchronized (Prompt.class) {
 
-    /**
-     * Prompts the user to input a double with a message.
-     * Rejects any non-numeric values or non-positive
-     * numbers.
-     *
-     * @return the double
-     */
-    public static double promptNumPos() {
-        return promptNumPos("");
-    }
+                write(message);
 
-    /**
-     * Prompts the user to input a double with a message.
-     * Rejects any non-numeric values or non-positive
-     * numbers.
-     *
-     * @param message the message to prompt the user
-     * @return the double
-     */
-    public static double promptNumPos (String message) {
+                while (true) {
 
-        printMsg(message);
-        double num;
-        boolean validInput;
+                    String line = readLine().trim();
 
-        do {
-            num = promptNum();
-            validInput = num > 0;
+                    if (!isDecimal(line)) {
+                        write(NOT_A_NUMBER);
+                        continue;
+                    }
 
-            if (!validInput) {
-                System.out.printf("\nPlease input a positive number.\n");
+                    double num = Double.parseDouble(line);
+
+                    if (error == null
+                            || (num > min || minInclusive && num == min) && (num < max || maxInclusive && num == max)) {
+                        return num;
+                    }
+                    write(error);
+                }
             }
+        }
 
-        } while (!validInput);
+        /**
+         * Asks for a menu choice until a valid one is input. Any
+         * fraction is dropped, as menu does.
+         *
+         * @return the choice, from 1
+         * @throws IllegalStateException if this Prompt is not for a number
+         */
+        public int askChoice() {
+            return (int) askNum();
+        }
 
-        return num;
-    }
+        /**
+         * Asks for Y or N until one of them is input.
+         *
+         * @return true if Y, false if N
+         * @throws IllegalStateException if this Prompt is not for Y or N
+         */
+        public boolean askYN() {
 
+            check(Kind.YES_NO);
 
+            synchronized (Prompt.class) {
 
+                write(message);
 
-    /**
-     * Prompts the user to input a double with a message.
-     * Rejects any non-numeric values or non-negative
-     * numbers.
-     *
-     * @return the double
-     */
-    public static double promptNumNeg() {
-        return promptNumNeg("");
-    }
+                while (true) {
 
-    /**
-     * Prompts the user to input a double with a message.
-     * Rejects any non-numeric values or non-negative
-     * numbers.
-     *
-     * @param message the message to prompt the user
-     * @return the double
-     */
-    public static double promptNumNeg (String message) {
+                    String line = readLine();
 
-        printMsg(message);
-        double num;
-        boolean validInput;
+                    // Setting bit 0x20 lower-cases an ASCII letter
+                    if (line.length() == 1) {
 
-        do {
-            num = promptNum();
-            validInput = num < 0;
+                        char c = (char) (line.charAt(0) | 0x20);
 
-            if (!validInput) {
-                System.out.printf("\nPlease input a negative number.\n");
+                        if (c == 'y' || c == 'n') {
+                            return c == 'y';
+                        }
+                    }
+                    write(error);
+                }
             }
+        }
 
-        } while (!validInput);
-
-        return num;
-    }
-
+        /**
+         * Asks for one of this Prompt's words until one is input.
+         *
+         * @return the word, as it was given when the Prompt was made
+         * @throws IllegalStateException if this Prompt is not for words
+         */
+        public String askToken() {
 
+            check(Kind.TOKEN);
 
+            synchronized (Prompt.class) {
 
-    /**
-     * Prompts the user to input a double with a message
-     * within a specified range.
-     *
-     * @param min     the min, inclusive
-     * @param max     the max, inclusive
-     * @return the int
-     */
-    public static double promptNumRange (double min, double max) {
-        return promptNumRange(min, max, "");
-    }
+                write(message);
 
-    /**
-     * Prompts the user to input a double with a message
-     * within a specified range.
-     *
-     * @param min     the min, inclusive
-     * @param max     the max, inclusive
-     * @param message the message to prompt the user
-     * @return the int
-     */
-    public static double promptNumRange (double min, double max, String message) {
+                while (true) {
 
-        printMsg(message);
-        double num;
-        boolean validInput;
+                    String token = tokens.get(readLine().trim().toLowerCase(Locale.ROOT));
 
-        do {
-            num = promptNum();
-            validInput = num >= min && num <= max;
+                    if (token != null) {
+                        return token;
+                    }
+                    write(error);
+                }
+            }
+        }
 
-            if (!validInput)
-                System.out.printf("\nPlease input a number between %s and %s.\n", numToStringNoTrailingZeros(min), numToStringNoTrailingZeros(max));
+        /**
+         * Reads the next line typed by the user, without its
+         * line break.
+         *
+         * @return the line
+         * @throws NoSuchElementException if there is no more input
+         */
+        static String readLine() {
 
-        } while (!validInput);
+            try {
+                String line = PromptInput.reader.readLine();
 
-        return num;
-    }
+                if (line == null) {
+                    throw new NoSuchElementException("No line found");
+                }
+                return line;
 
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
 
+        /**
+         * Checks that a line is a plain decimal number, such as
+         * "-12", "3.5", ".5" or "1e-3". Double.parseDouble would
+         * also take Java literals such as "1f" or "0x1p3", which
+         * the prompts must reject.
+         *
+         * @param  line the line to check
+         * @return true if the line is a plain decimal number
+         */
+        private static boolean isDecimal (String line) {
+
+            int i = 0;
+            int n = line.length();
+            int digits = 0;
+
+            if (i < n && (line.charAt(i) == '+' || line.charAt(i) == '-')) {
+                i++;
+            }
 
+            for (; i < n && line.charAt(i) >= '0' && line.charAt(i) <= '9'; i++) {
+                digits++;
+            }
 
-    /**
-     * Prompts the user to input a String with no message.
-     *
-     * @return the string
-     */
-    public static String promptStr() {
-        return promptStr("");
-    }
+            if (i < n && line.charAt(i) == '.') {
+                for (i++; i < n && line.charAt(i) >= '0' && line.charAt(i) <= '9'; i++) {
+                    digits++;
+                }
+            }
 
-    /**
-     * Prompts the user to input a string with a message.
-     *
-     * @param message the message to print
-     * @return the string
-     */
-    public static String promptStr (String message) {
+            if (digits == 0) {
+                return false;
+            }
 
-        printMsg(message);
-        Scanner scanner = new Scanner(System.in);
+            if (i < n && (line.charAt(i) | 0x20) == 'e') {
 
-        return scanner.nextLine();
-    }
+                i++;
 
+                if (i < n && (line.charAt(i) == '+' || line.charAt(i) == '-')) {
+                    i++;
+                }
 
+                int start = i;
 
-    /**
-     * Prompts the user to input Y or N with no message.
-     * Ignores case. Returns true if Y or false if N.
-     *
-     * @return true if Y, false otherwise
-     */
-    public static boolean promptYN() {
-        return promptYN ("");
-    }
+                while (i < n && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+                    i++;
+                }
 
-    /**
-     * Prompts the user to input Y or N with a message.
-     * Ignores case. Returns true if Y or false if N.
-     *
-     * @param message the message to prompt the user
-     * @return true if Y, false otherwise
-     */
-    public static boolean promptYN (String message) {
+                if (i == start) {
+                    return false;
+                }
+            }
+            return i == n;
+        }
 
-        printMsg(message);
-        String line;
-        boolean validInput;
+        private void check (Kind expected) {
 
-        do {
-            line = promptStr();
-            validInput = line.equalsIgnoreCase("y") || line.equalsIgnoreCase("n");
+            if (kind != expected) {
+                throw new IllegalStateException("Prompt is for " + kind + ", not " + expected);
+            }
+        }
 
-            if (!validInput)
-                System.out.print("\nPlease input either 'Y' or 'N'.\n");
+        private static byte[] encode (String text) {
+            return text.getBytes(Charset.defaultCharset());
+        }
 
-        } while (!validInput);
+        private static void write (byte[] bytes) {
 
-        return line.equalsIgnoreCase("y");
+            if (bytes.length > 0) {
+                System.out.write(bytes, 0, bytes.length);
+                System.out.flush();
+            }
+        }
     }
 }
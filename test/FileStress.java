@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A stress test for Utils.fileAppend and Utils.fileWriteLocked. It
+ * starts several processes that append records to one log and
+ * rewrite one locked file at the same time, then checks that no
+ * record was split by another and that the locked file holds one
+ * writer's output. It then does the same with threads in this
+ * program, half of them reaching the locked file through a link.
+ *
+ * To run it from the project folder:
+ * javac -d out src/Utils.java test/FileStress.java
+ * java -cp out FileStress
+ */
+public class FileStress {
+
+    private static final int PROCESSES = 8;
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 300;
+
+    private static final String LOG = "stress.log";
+    private static final String LOCKED = "stress-locked.txt";
+    private static final String LINK = "stress-link.txt";
+
+    /**
+     * Runs the test, or one worker process when given its number.
+     *
+     * @param  args        the worker number, or nothing to run the test
+     * @throws Exception if the test cannot be run
+     */
+    public static void main (String[] args) throws Exception {
+
+        if (args.length > 0) {
+            work(Integer.parseInt(args[0]));
+            return;
+        }
+
+        PrintStream out = System.out;
+
+        Files.deleteIfExists(Paths.get(LOG));
+        Files.deleteIfExists(Paths.get(LOCKED));
+
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> workers = new ArrayList<>();
+
+        for (int id = 0; id < PROCESSES; id++) {
+            workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "FileStress", Integer.toString(id)).inheritIO().start());
+        }
+
+        for (Process worker : workers) {
+
+            if (worker.waitFor() != 0) {
+                throw new AssertionError("A worker process failed.");
+            }
+        }
+
+        out.printf("Processes: %d records appended whole, locked file whole.\n", checkLog());
+        checkLocked();
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Files.deleteIfExists(Paths.get(LINK));
+
+        try {
+            Files.createSymbolicLink(Paths.get(LINK), Paths.get(LOCKED).toAbsolutePath());
+
+        } catch (IOException | UnsupportedOperationException e) {
+            System.setOut(out);
+            out.println("Threads: skipped, links are not supported here.");
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Boolean>> writes = new ArrayList<>();
+
+        for (int i = 0; i < THREADS * 5; i++) {
+
+            String name = i % 2 == 0 ? LOCKED : LINK;
+            String[] lines = lines("T" + i, 1 + i % 20, 200);
+            writes.add(pool.submit(() -> Utils.fileWriteLocked(name, lines)));
+        }
+
+        try {
+            for (Future<Boolean> write : writes) {
+
+                if (!write.get()) {
+                    throw new AssertionError("A locked write through a link failed.");
+                }
+            }
+
+        } catch (ExecutionException e) {
+            throw new AssertionError("A locked write through a link threw.", e.getCause());
+
+        } finally {
+            pool.shutdown();
+        }
+
+        checkLocked();
+        Files.delete(Paths.get(LINK));
+
+        System.setOut(out);
+        out.printf("Threads: %d locked writes through two names, locked file whole.\n", writes.size());
+    }
+
+    /**
+     * Appends records to the log and rewrites the locked file, as
+     * one worker process.
+     *
+     * @param  id          the worker number
+     */
+    private static void work (int id) {
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        for (int i = 0; i < ROUNDS; i++) {
+
+            int n = 1 + i % 50;
+            String[] record = new String[n];
+
+            for (int j = 0; j < n; j++) {
+                record[j] = "P" + id + " R" + i + " L" + j + "/" + n + " " + "x".repeat(j * 37 % 500);
+            }
+
+            if (!Utils.fileAppend(LOG, record)) {
+                System.exit(1);
+            }
+
+            if (!Utils.fileWriteLocked(LOCKED, lines("W" + id + "-" + i, n, 200))) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Checks that each record in the log is whole, with its lines
+     * in order and none from another record between them.
+     *
+     * @return the number of records in the log
+     * @throws IOException if the log cannot be read
+     */
+    private static int checkLog () throws IOException {
+
+        List<String> lines = Files.readAllLines(Paths.get(LOG));
+        int records = 0;
+
+        for (int i = 0; i < lines.size(); records++) {
+
+            String[] first = lines.get(i).split(" ");
+            int n = Integer.parseInt(first[2].substring(first[2].indexOf('/') + 1));
+
+            for (int j = 0; j < n; j++) {
+
+                String[] line = (i + j < lines.size() ? lines.get(i + j) : "").split(" ");
+
+                if (line.length < 3 || !line[0].equals(first[0]) || !line[1].equals(first[1])
+                        || !line[2].startsWith("L" + j + "/")) {
+                    throw new AssertionError("Record split at line " + (i + j + 1) + " of " + LOG + ".");
+                }
+            }
+            i += n;
+        }
+
+        if (records != PROCESSES * ROUNDS) {
+            throw new AssertionError("Expected " + PROCESSES * ROUNDS + " records but found " + records + ".");
+        }
+        return records;
+    }
+
+    /**
+     * Checks that every line of the locked file came from the same
+     * write.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private static void checkLocked () throws IOException {
+
+        List<String> lines = Files.readAllLines(Paths.get(LOCKED));
+
+        if (lines.isEmpty() || lines.stream().anyMatch(line -> !line.equals(lines.get(0)))) {
+            throw new AssertionError("Writes were mixed in " + LOCKED + ".");
+        }
+    }
+
+    /**
+     * Makes an array of the same line repeated.
+     *
+     * @param  tag         the text the line starts with
+     * @param  count       the number of lines
+     * @param  width       the number of filler characters on each line
+     * @return the lines
+     */
+    private static String[] lines (String tag, int count, int width) {
+
+        String[] lines = new String[count];
+        Arrays.fill(lines, tag + " " + "y".repeat(width));
+        return lines;
+    }
+}